@@ -0,0 +1,60 @@
+package de.samuelgesang.backend.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small in-process cache bounded by the total size of its values instead of their number.
+ * The size of a value is taken when it is put. When full, least recently used entries are evicted.
+ */
+public class SizeBoundedCache<K, V> {
+
+    private final long maxSize;
+    private final ToLongFunction<V> sizer;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public SizeBoundedCache(long maxSize, ToLongFunction<V> sizer) {
+        this.maxSize = maxSize;
+        this.sizer = sizer;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value();
+    }
+
+    /**
+     * Stores the value, replacing any previous value of the key. Values larger than the whole cache are not stored.
+     */
+    public synchronized void put(K key, V value) {
+        invalidate(key);
+        long valueSize = sizer.applyAsLong(value);
+        if (valueSize > maxSize) {
+            return;
+        }
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (size + valueSize > maxSize && eldest.hasNext()) {
+            size -= eldest.next().size();
+            eldest.remove();
+        }
+        entries.put(key, new Entry<>(value, valueSize));
+        size += valueSize;
+    }
+
+    public synchronized void invalidate(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size();
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    private record Entry<V>(V value, long size) {
+    }
+}
@@ -0,0 +1,25 @@
+package de.samuelgesang.backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${sitemap.http.connect-timeout:10s}")
+    private Duration connectTimeout;
+
+    // One client for the whole application, so connections are pooled and kept alive across crawls
+    @Bean
+    public HttpClient sitemapHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+}
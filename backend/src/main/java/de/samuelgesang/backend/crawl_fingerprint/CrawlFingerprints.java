@@ -0,0 +1,26 @@
+package de.samuelgesang.backend.crawl_fingerprint;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Setter
+@Getter
+@Document(collection = "crawl_fingerprints")
+public class CrawlFingerprints {
+    @Id
+    private String crawlId;
+    private String siteId;
+    private int count;
+    // Sorted 64-bit hashes of all URLs of the crawl, 8 bytes each, big-endian
+    private byte[] hashes;
+    // Lastmod of each hash in unsigned epoch seconds, 4 bytes each, 0 if unknown
+    private byte[] lastModified;
+    // Two URLs of the crawl share a hash, so the hashes can't be used to detect changes
+    private boolean collisions;
+    private int crawlsSinceSnapshot;
+    private long diffItemsSinceSnapshot;
+    // The sitemap child states of the site were fully written for this crawl
+    private boolean childStates;
+}
@@ -0,0 +1,6 @@
+package de.samuelgesang.backend.crawl_fingerprint;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface CrawlFingerprintsRepository extends MongoRepository<CrawlFingerprints, String> {
+}
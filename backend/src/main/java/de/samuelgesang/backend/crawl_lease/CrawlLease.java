@@ -0,0 +1,23 @@
+package de.samuelgesang.backend.crawl_lease;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lock that allows only one crawl or crawl deletion per site at a time, the id is the site id. A lease that
+ * is past {@code expiresAt} is treated as released, so a crashed crawl doesn't block the site forever.
+ */
+@Setter
+@Getter
+@Document(collection = "crawl_leases")
+public class CrawlLease {
+    @Id
+    private String id;
+    private String owner;
+    private Instant acquiredAt;
+    private Instant expiresAt;
+}
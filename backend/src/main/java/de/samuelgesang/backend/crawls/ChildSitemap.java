@@ -0,0 +1,12 @@
+package de.samuelgesang.backend.crawls;
+
+/**
+ * A sitemap with page URLs that was read during a crawl. {@code urls} and {@code fingerprints} are
+ * {@code null} if the sitemap content is unchanged since the previous crawl of the site.
+ */
+record ChildSitemap(String url, String digest, CompactUrlSet urls, FingerprintTable fingerprints) {
+
+    boolean unchanged() {
+        return urls == null;
+    }
+}
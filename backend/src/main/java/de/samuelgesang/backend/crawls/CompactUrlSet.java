@@ -0,0 +1,493 @@
+package de.samuelgesang.backend.crawls;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Sorted URL set for crawls with many URLs. The URLs are stored as UTF-8 in one byte array, sorted and
+ * front-coded in blocks of {@value #BLOCK_SIZE}: every URL after the first in a block only stores the part that
+ * differs from its predecessor, so the long host and path prefixes shared by sitemap URLs are kept once per block.
+ * <p>
+ * Changes are collected in small pending sets and merged into the byte array once enough of them have piled up.
+ * Iteration is in unsigned byte order of the UTF-8 encoding, which is the code point order of the URLs.
+ * Instances are not thread-safe, but an instance that is no longer modified can be iterated by several threads.
+ */
+public final class CompactUrlSet implements Iterable<String> {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int MIN_PENDING = 4096;
+    private static final Comparator<byte[]> ORDER = Arrays::compareUnsigned;
+
+    private byte[] data = new byte[0];
+    private int[] blockOffsets = new int[0];
+    private int blockCount;
+    private int compactedSize;
+
+    // pendingAdds never overlaps the compacted URLs, pendingRemovals is always a subset of them
+    private final TreeSet<byte[]> pendingAdds = new TreeSet<>(ORDER);
+    private final TreeSet<byte[]> pendingRemovals = new TreeSet<>(ORDER);
+    private int size;
+
+    public static CompactUrlSet copyOf(Collection<String> urls) {
+        byte[][] keys = new byte[urls.size()][];
+        int i = 0;
+        for (String url : urls) {
+            keys[i++] = encode(url);
+        }
+        Arrays.sort(keys, ORDER);
+
+        CompactUrlSet set = new CompactUrlSet();
+        Encoder encoder = new Encoder(keys.length);
+        byte[] previous = null;
+        for (byte[] key : keys) {
+            if (previous == null || ORDER.compare(previous, key) != 0) {
+                encoder.append(key);
+                previous = key;
+            }
+        }
+        set.install(encoder);
+        return set;
+    }
+
+    public boolean add(String url) {
+        return addKey(encode(url));
+    }
+
+    public void addAll(Collection<String> urls) {
+        urls.forEach(this::add);
+    }
+
+    /**
+     * Merges sets in a single pass over their sorted URLs.
+     */
+    public static CompactUrlSet union(List<CompactUrlSet> sets) {
+        PriorityQueue<MergeSource> queue = new PriorityQueue<>(Math.max(1, sets.size()),
+                (a, b) -> ORDER.compare(a.head, b.head));
+        int expectedSize = 0;
+        for (CompactUrlSet set : sets) {
+            MergeSource source = new MergeSource(set.keys());
+            if (source.advance()) {
+                queue.add(source);
+            }
+            expectedSize += set.size();
+        }
+
+        Encoder encoder = new Encoder(expectedSize);
+        byte[] previous = null;
+        while (!queue.isEmpty()) {
+            MergeSource source = queue.poll();
+            if (previous == null || ORDER.compare(previous, source.head) != 0) {
+                encoder.append(source.head);
+                previous = source.head;
+            }
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+
+        CompactUrlSet union = new CompactUrlSet();
+        union.install(encoder);
+        return union;
+    }
+
+    public boolean remove(String url) {
+        byte[] key = encode(url);
+        if (pendingAdds.remove(key)) {
+            size--;
+            return true;
+        }
+        if (pendingRemovals.contains(key) || !compactedContains(key)) {
+            return false;
+        }
+        pendingRemovals.add(key);
+        size--;
+        compactIfNeeded();
+        return true;
+    }
+
+    public boolean contains(String url) {
+        byte[] key = encode(url);
+        if (pendingAdds.contains(key)) {
+            return true;
+        }
+        return !pendingRemovals.contains(key) && compactedContains(key);
+    }
+
+    /**
+     * Replays a crawl diff: "add" items are added and "remove" items are removed.
+     */
+    public void apply(List<CrawlDiffItem> diff) {
+        if (diff == null) {
+            return;
+        }
+        for (CrawlDiffItem item : diff) {
+            if ("add".equals(item.getAction())) {
+                add(item.getUrl());
+            } else if ("remove".equals(item.getAction())) {
+                remove(item.getUrl());
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Merges all pending changes into the compact representation. Called once a set is fully built,
+     * so it does not keep pending entries around for the rest of the crawl.
+     */
+    public void compact() {
+        if (pendingAdds.isEmpty() && pendingRemovals.isEmpty()) {
+            return;
+        }
+        Encoder encoder = new Encoder(size);
+        Iterator<byte[]> keys = keys();
+        while (keys.hasNext()) {
+            encoder.append(keys.next());
+        }
+        pendingAdds.clear();
+        pendingRemovals.clear();
+        install(encoder);
+    }
+
+    /**
+     * Approximate heap used by the URLs of this set, without object headers of the set itself.
+     */
+    public long estimatedSizeInBytes() {
+        long pending = 0;
+        for (byte[] key : pendingAdds) {
+            pending += key.length + 64;
+        }
+        for (byte[] key : pendingRemovals) {
+            pending += key.length + 64;
+        }
+        return data.length + 4L * blockOffsets.length + pending;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        Iterator<byte[]> keys = keys();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return new String(keys.next(), StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Iterates the UTF-8 encoded URLs in order. Used for merge walks that only decode the URLs they emit.
+     */
+    Iterator<byte[]> keys() {
+        return keys(null, null);
+    }
+
+    /**
+     * Iterates the UTF-8 encoded URLs from {@code from} inclusive to {@code to} exclusive in order.
+     * A {@code null} bound leaves the range open on that side.
+     */
+    Iterator<byte[]> keys(byte[] from, byte[] to) {
+        int startBlock = from == null ? 0 : Math.max(0, floorBlock(from));
+        NavigableSet<byte[]> adds = pendingAdds;
+        if (from != null) {
+            adds = adds.tailSet(from, true);
+        }
+        if (to != null) {
+            adds = adds.headSet(to, false);
+        }
+        Iterator<byte[]> added = adds.iterator();
+        return new Iterator<>() {
+            private final Cursor cursor = new Cursor(startBlock);
+            private boolean compactedDone;
+            private byte[] nextCompacted = advanceCompacted();
+            private byte[] nextAdded = added.hasNext() ? added.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextCompacted != null || nextAdded != null;
+            }
+
+            @Override
+            public byte[] next() {
+                byte[] key;
+                if (nextCompacted == null && nextAdded == null) {
+                    throw new NoSuchElementException();
+                } else if (nextAdded == null || (nextCompacted != null && ORDER.compare(nextCompacted, nextAdded) < 0)) {
+                    key = nextCompacted;
+                    nextCompacted = advanceCompacted();
+                } else {
+                    key = nextAdded;
+                    nextAdded = added.hasNext() ? added.next() : null;
+                }
+                return key;
+            }
+
+            private byte[] advanceCompacted() {
+                while (!compactedDone && cursor.index < compactedSize) {
+                    cursor.advance();
+                    if (from != null && cursor.compareTo(from) < 0) {
+                        continue;
+                    }
+                    if (to != null && cursor.compareTo(to) >= 0) {
+                        compactedDone = true;
+                        break;
+                    }
+                    byte[] key = cursor.copy();
+                    if (pendingRemovals.isEmpty() || !pendingRemovals.contains(key)) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns up to {@code parts - 1} ascending URLs of the set that split it into ranges of about equal size.
+     * Pending changes are not taken into account, so the ranges are only balanced for a compacted set.
+     */
+    List<byte[]> splitKeys(int parts) {
+        List<byte[]> splitKeys = new ArrayList<>(Math.max(0, parts - 1));
+        int previousBlock = 0;
+        for (int i = 1; i < parts; i++) {
+            int block = (int) ((long) blockCount * i / parts);
+            if (block > previousBlock) {
+                Cursor cursor = new Cursor(block);
+                cursor.advance();
+                splitKeys.add(cursor.copy());
+                previousBlock = block;
+            }
+        }
+        return splitKeys;
+    }
+
+    static int compare(byte[] a, byte[] b) {
+        return ORDER.compare(a, b);
+    }
+
+    static String decode(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String url) {
+        return url.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean addKey(byte[] key) {
+        if (pendingRemovals.remove(key)) {
+            size++;
+            return true;
+        }
+        if (pendingAdds.contains(key) || compactedContains(key)) {
+            return false;
+        }
+        pendingAdds.add(key);
+        size++;
+        compactIfNeeded();
+        return true;
+    }
+
+    private void compactIfNeeded() {
+        if (pendingAdds.size() + pendingRemovals.size() >= Math.max(MIN_PENDING, compactedSize / 8)) {
+            compact();
+        }
+    }
+
+    private void install(Encoder encoder) {
+        data = Arrays.copyOf(encoder.data, encoder.length);
+        blockOffsets = Arrays.copyOf(encoder.blockOffsets, encoder.blockCount);
+        blockCount = encoder.blockCount;
+        compactedSize = encoder.count;
+        size = compactedSize;
+    }
+
+    private boolean compactedContains(byte[] key) {
+        int block = floorBlock(key);
+        if (block < 0) {
+            return false;
+        }
+
+        Cursor cursor = new Cursor(block);
+        int end = Math.min(compactedSize, (block + 1) * BLOCK_SIZE);
+        while (cursor.index < end) {
+            cursor.advance();
+            int cmp = cursor.compareTo(key);
+            if (cmp == 0) {
+                return true;
+            } else if (cmp > 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Finds the last block whose first URL is not greater than the key, or -1
+    private int floorBlock(byte[] key) {
+        int low = 0;
+        int high = blockCount - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareFirstKey(mid, key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return block;
+    }
+
+    private int compareFirstKey(int block, byte[] key) {
+        int position = blockOffsets[block];
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return Arrays.compareUnsigned(data, position, position + length, key, 0, key.length);
+    }
+
+    private static final class MergeSource {
+        private final Iterator<byte[]> keys;
+        private byte[] head;
+
+        private MergeSource(Iterator<byte[]> keys) {
+            this.keys = keys;
+        }
+
+        private boolean advance() {
+            head = keys.hasNext() ? keys.next() : null;
+            return head != null;
+        }
+    }
+
+    /**
+     * Decodes the compacted URLs one after another, starting at the beginning of a block.
+     */
+    private final class Cursor {
+        private final byte[] bytes = data;
+        private int position;
+        private int index;
+        private byte[] current = new byte[128];
+        private int currentLength;
+
+        private Cursor(int block) {
+            this.position = block < blockCount ? blockOffsets[block] : 0;
+            this.index = block * BLOCK_SIZE;
+        }
+
+        private void advance() {
+            int prefix = index % BLOCK_SIZE == 0 ? 0 : readVarint();
+            int suffix = readVarint();
+            if (prefix + suffix > current.length) {
+                current = Arrays.copyOf(current, Math.max(prefix + suffix, current.length * 2));
+            }
+            System.arraycopy(bytes, position, current, prefix, suffix);
+            position += suffix;
+            currentLength = prefix + suffix;
+            index++;
+        }
+
+        private byte[] copy() {
+            return Arrays.copyOf(current, currentLength);
+        }
+
+        private int compareTo(byte[] key) {
+            return Arrays.compareUnsigned(current, 0, currentLength, key, 0, key.length);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Writes sorted, distinct URLs in the front-coded block format.
+     */
+    private static final class Encoder {
+        private byte[] data;
+        private int length;
+        private int[] blockOffsets;
+        private int blockCount;
+        private int count;
+        private byte[] previous;
+
+        private Encoder(int expectedSize) {
+            this.data = new byte[Math.max(64, expectedSize * 16)];
+            this.blockOffsets = new int[Math.max(1, expectedSize / BLOCK_SIZE + 1)];
+        }
+
+        private void append(byte[] key) {
+            if (count % BLOCK_SIZE == 0) {
+                if (blockCount == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+                }
+                blockOffsets[blockCount++] = length;
+                writeVarint(key.length);
+                writeBytes(key, 0, key.length);
+            } else {
+                int prefix = Arrays.mismatch(previous, key);
+                if (prefix < 0) {
+                    prefix = key.length;
+                }
+                writeVarint(prefix);
+                writeVarint(key.length - prefix);
+                writeBytes(key, prefix, key.length - prefix);
+            }
+            previous = key;
+            count++;
+        }
+
+        private void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                data[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + additional, data.length * 2));
+            }
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package de.samuelgesang.backend.crawls;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @Setter
@@ -20,5 +21,33 @@ public class Crawl {
     private String finishedAt;
     private String prevCrawlId;
     private List<String> urlChunkIds;
-    private List<CrawlDiffItem> diffToPrevCrawl = new ArrayList<>();
+    // Snapshots store the full URL set in urlChunkIds, so the diff chain can be replayed from here
+    private boolean snapshot;
+    // Number of URLs in urlChunkIds, 0 for snapshots stored before it was recorded
+    private int urlCount;
+    // Size of the diff to the previous crawl per action, the items are in crawl_diff_items
+    private int addedCount;
+    private int removedCount;
+    private int modifiedCount;
+    // Diffs were embedded before they had their own collection, CrawlDiffMigration moves them out
+    @JsonIgnore
+    @Field("diffToPrevCrawl")
+    private List<CrawlDiffItem> legacyDiff;
+
+    // Crawls that are not migrated yet have no stored counts, they are taken from the embedded diff instead
+    public int getAddedCount() {
+        return legacyDiff == null ? addedCount : countLegacy("add");
+    }
+
+    public int getRemovedCount() {
+        return legacyDiff == null ? removedCount : countLegacy("remove");
+    }
+
+    public int getModifiedCount() {
+        return legacyDiff == null ? modifiedCount : countLegacy("modified");
+    }
+
+    private int countLegacy(String action) {
+        return (int) legacyDiff.stream().filter(item -> action.equals(item.getAction())).count();
+    }
 }
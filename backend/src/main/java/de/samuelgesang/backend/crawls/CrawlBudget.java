@@ -0,0 +1,15 @@
+package de.samuelgesang.backend.crawls;
+
+import java.time.Duration;
+
+/**
+ * Resource limits for collecting the URLs of a single crawl.
+ *
+ * @param parallelism        number of sitemap documents fetched at the same time
+ * @param maxDocumentBytes   maximum decoded size of a single sitemap document
+ * @param maxUrls            maximum number of page URLs per crawl
+ * @param maxDepth           maximum nesting of sitemap indexes, the root sitemap has depth 0
+ * @param timeout            wall-clock time after which the crawl is aborted
+ */
+record CrawlBudget(int parallelism, long maxDocumentBytes, long maxUrls, int maxDepth, Duration timeout) {
+}
@@ -1,11 +1,14 @@
 package de.samuelgesang.backend.crawls;
 
 import de.samuelgesang.backend.exceptions.BadRequestException;
+import de.samuelgesang.backend.exceptions.CrawlInProgressException;
 import de.samuelgesang.backend.exceptions.ResourceNotFoundException;
+import de.samuelgesang.backend.exceptions.SitemapBudgetExceededException;
 import de.samuelgesang.backend.exceptions.UnauthorizedAccessException;
 import de.samuelgesang.backend.sitemaps.SitemapService;
 import de.samuelgesang.backend.sites.Site;
 import de.samuelgesang.backend.sites.SiteService;
+import de.samuelgesang.backend.url_chunk.BulkUpdateUrlStatusDTO;
 import de.samuelgesang.backend.url_chunk.UpdateUrlStatusDTO;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -16,6 +19,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -25,6 +29,9 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class CrawlController {
 
+    private static final int MAX_DIFF_PAGE_SIZE = 1000;
+    private static final Set<String> DIFF_ACTIONS = Set.of("add", "remove", "modified");
+
     private final SiteService siteService;
     private final SitemapService sitemapService;
     private final CrawlRepository crawlRepository;
@@ -56,25 +63,30 @@ public class CrawlController {
             return ResponseEntity.ok("Site crawled successfully.");
         } catch (ResourceNotFoundException | UnauthorizedAccessException | BadRequestException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (SitemapBudgetExceededException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+        } catch (CrawlInProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
     }
 
     @PutMapping("/update-url-status/{crawlId}")
-    public ResponseEntity<Crawl> updateUrlCheckedStatus(@PathVariable String crawlId,
-                                                        @RequestBody UpdateUrlStatusDTO updateUrlStatusDTO,
-                                                        @AuthenticationPrincipal OAuth2User user) {
+    public ResponseEntity<CrawlDiffCheckResultDTO> updateUrlCheckedStatus(@PathVariable String crawlId,
+                                                                          @RequestBody UpdateUrlStatusDTO updateUrlStatusDTO,
+                                                                          @AuthenticationPrincipal OAuth2User user) {
         try {
             if (user == null) {
                 throw new UnauthorizedAccessException("User not authorized.");
             }
             log.info("Received request to update URL checked status: crawlId={}, updateUrlStatusDTO={}", crawlId, updateUrlStatusDTO);
+            String userId = (String) user.getAttributes().get("sub");
 
-            Crawl updatedCrawl = crawlService.updateUrlCheckedStatus(crawlId, updateUrlStatusDTO);
+            CrawlDiffCheckResultDTO result = crawlService.updateUrlCheckedStatus(crawlId, userId, updateUrlStatusDTO);
 
-            if (updatedCrawl != null) {
-                return ResponseEntity.ok(updatedCrawl);
+            if (result != null) {
+                return ResponseEntity.ok(result);
             } else {
                 throw new ResourceNotFoundException("Crawl not found.");
             }
@@ -86,6 +98,61 @@ public class CrawlController {
         }
     }
 
+    @PutMapping("/{crawlId}/diff/checked")
+    public ResponseEntity<CrawlDiffCheckResultDTO> updateUrlCheckedStatusInBulk(@PathVariable String crawlId,
+                                                                                @RequestBody BulkUpdateUrlStatusDTO bulkUpdateUrlStatusDTO,
+                                                                                @AuthenticationPrincipal OAuth2User user) {
+        try {
+            if (user == null) {
+                throw new UnauthorizedAccessException("User not authorized.");
+            }
+            String action = bulkUpdateUrlStatusDTO.getAction();
+            if (action != null && !DIFF_ACTIONS.contains(action)) {
+                throw new BadRequestException("Unknown diff action: " + action);
+            }
+            String userId = (String) user.getAttributes().get("sub");
+
+            return ResponseEntity.ok(crawlService.updateUrlCheckedStatus(crawlId, userId, bulkUpdateUrlStatusDTO));
+        } catch (BadRequestException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (ResourceNotFoundException | UnauthorizedAccessException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            log.error("Error updating URL checked status of crawl {}: ", crawlId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/{crawlId}/diff")
+    public ResponseEntity<CrawlDiffPageDTO> getCrawlDiff(@PathVariable String crawlId,
+                                                         @RequestParam(defaultValue = "0") int page,
+                                                         @RequestParam(defaultValue = "50") int size,
+                                                         @RequestParam(required = false) String action,
+                                                         @RequestParam(required = false) Boolean checked,
+                                                         @AuthenticationPrincipal OAuth2User user) {
+        try {
+            if (user == null) {
+                throw new UnauthorizedAccessException("User not authorized.");
+            }
+            if (page < 0 || size < 1 || size > MAX_DIFF_PAGE_SIZE) {
+                throw new BadRequestException("Page size must be between 1 and " + MAX_DIFF_PAGE_SIZE + ".");
+            }
+            if (action != null && !DIFF_ACTIONS.contains(action)) {
+                throw new BadRequestException("Unknown diff action: " + action);
+            }
+            String userId = (String) user.getAttributes().get("sub");
+
+            return ResponseEntity.ok(crawlService.findDiffPage(crawlId, userId, action, checked, page, size));
+        } catch (BadRequestException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        } catch (ResourceNotFoundException | UnauthorizedAccessException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            log.error("Error loading diff of crawl {}: ", crawlId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @DeleteMapping("/{crawlId}")
     public ResponseEntity<String> deleteCrawl(@PathVariable String crawlId, @AuthenticationPrincipal OAuth2User user) {
         try {
@@ -94,6 +161,8 @@ public class CrawlController {
 
             crawlService.deleteCrawl(crawlId, userId);
             return ResponseEntity.ok("Crawl deleted successfully.");
+        } catch (CrawlInProgressException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
         }
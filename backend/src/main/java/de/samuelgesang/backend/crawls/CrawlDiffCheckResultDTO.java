@@ -0,0 +1,16 @@
+package de.samuelgesang.backend.crawls;
+
+/**
+ * Outcome of changing the checked state of diff items. Only the change is reported, so the caller can adjust
+ * its own counts without the diff being counted again.
+ *
+ * @param matched       items the update applied to
+ * @param modified      items whose checked state actually changed
+ * @param checkedDelta  change of the number of checked items in the whole diff
+ */
+public record CrawlDiffCheckResultDTO(long matched, long modified, long checkedDelta) {
+
+    static CrawlDiffCheckResultDTO of(long matched, long modified, boolean checked) {
+        return new CrawlDiffCheckResultDTO(matched, modified, checked ? modified : -modified);
+    }
+}
@@ -3,14 +3,35 @@ package de.samuelgesang.backend.crawls;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
+/**
+ * One changed URL of a crawl. Diffs are stored in their own collection, the indexes match the filters and the
+ * action and URL order of the diff pages.
+ */
 @Setter
 @Getter
 @ToString
+@Document(collection = "crawl_diff_items")
+@CompoundIndex(name = "crawl_action_url", def = "{'crawlId': 1, 'action': 1, 'url': 1}")
+@CompoundIndex(name = "crawl_checked_action_url", def = "{'crawlId': 1, 'checked': 1, 'action': 1, 'url': 1}")
+@CompoundIndex(name = "crawl_url", def = "{'crawlId': 1, 'url': 1}")
 public class CrawlDiffItem {
 
+    @Id
+    private String id;
+    private String crawlId;
     private String action;
     private String url;
     private boolean checked;
 
+    public static CrawlDiffItem of(String action, String url) {
+        CrawlDiffItem item = new CrawlDiffItem();
+        item.setAction(action);
+        item.setUrl(url);
+        item.setChecked(false);
+        return item;
+    }
 }
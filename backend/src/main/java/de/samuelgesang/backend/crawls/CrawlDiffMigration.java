@@ -0,0 +1,60 @@
+package de.samuelgesang.backend.crawls;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Moves diffs that are still embedded in their crawl into the crawl_diff_items collection once after startup.
+ * Embedded diffs stay readable until their crawl is migrated.
+ */
+@Component
+public class CrawlDiffMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlDiffMigration.class);
+    private static final int BATCH_SIZE = 20;
+
+    private final MongoTemplate mongoTemplate;
+    private final CrawlDiffStore crawlDiffs;
+    private final boolean migrateOnStartup;
+
+    public CrawlDiffMigration(MongoTemplate mongoTemplate, CrawlDiffStore crawlDiffs,
+                              @Value("${crawl.diff.migrate-on-startup:true}") boolean migrateOnStartup) {
+        this.mongoTemplate = mongoTemplate;
+        this.crawlDiffs = crawlDiffs;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (!migrateOnStartup) {
+            return;
+        }
+        Thread.ofVirtual().name("crawl-diff-migration").start(this::moveEmbeddedDiffs);
+    }
+
+    private void moveEmbeddedDiffs() {
+        Query embeddedDiffs = Query.query(Criteria.where("diffToPrevCrawl").exists(true)).limit(BATCH_SIZE);
+        long migrated = 0;
+        try {
+            List<Crawl> crawls;
+            while (!(crawls = mongoTemplate.find(embeddedDiffs, Crawl.class)).isEmpty()) {
+                for (Crawl crawl : crawls) {
+                    crawlDiffs.migrate(crawl);
+                }
+                migrated += crawls.size();
+            }
+            logger.info("Crawl diff migration finished, moved the diffs of {} crawls", migrated);
+        } catch (Exception e) {
+            logger.error("Crawl diff migration failed after {} crawls: {}", migrated, e.getMessage(), e);
+        }
+    }
+}
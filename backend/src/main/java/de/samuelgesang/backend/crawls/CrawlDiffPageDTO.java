@@ -0,0 +1,6 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.List;
+
+public record CrawlDiffPageDTO(List<CrawlDiffItem> items, int page, int size, long totalItems) {
+}
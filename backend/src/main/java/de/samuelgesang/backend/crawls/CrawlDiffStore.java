@@ -0,0 +1,208 @@
+package de.samuelgesang.backend.crawls;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Stores the diff of each crawl to its previous crawl in the crawl_diff_items collection, while the crawl only
+ * keeps the counts. Crawls whose diff is still embedded are read from the crawl until they are migrated.
+ */
+@Component
+public class CrawlDiffStore {
+
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final Sort DIFF_ORDER = Sort.by("action", "url");
+
+    private final MongoTemplate mongoTemplate;
+
+    public CrawlDiffStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Stores the diff of a new crawl and sets its counts. The crawl itself is not saved.
+     */
+    void save(Crawl crawl, List<CrawlDiffItem> diff) {
+        for (int from = 0; from < diff.size(); from += WRITE_BATCH_SIZE) {
+            List<CrawlDiffItem> batch = diff.subList(from, Math.min(diff.size(), from + WRITE_BATCH_SIZE));
+            for (CrawlDiffItem item : batch) {
+                item.setId(new ObjectId().toHexString());
+                item.setCrawlId(crawl.getId());
+            }
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CrawlDiffItem.class).insert(batch).execute();
+        }
+        crawl.setAddedCount(count(diff, "add"));
+        crawl.setRemovedCount(count(diff, "remove"));
+        crawl.setModifiedCount(count(diff, "modified"));
+        crawl.setLegacyDiff(null);
+    }
+
+    /**
+     * Replaces the stored diff of an existing crawl, e.g. when the previous crawl is deleted. The crawl itself
+     * is not saved.
+     */
+    void replace(Crawl crawl, List<CrawlDiffItem> diff) {
+        delete(crawl.getId());
+        save(crawl, diff);
+    }
+
+    List<CrawlDiffItem> find(Crawl crawl) {
+        if (crawl.getLegacyDiff() != null) {
+            return crawl.getLegacyDiff();
+        }
+        if (size(crawl) == 0) {
+            return List.of();
+        }
+        return mongoTemplate.find(Query.query(Criteria.where("crawlId").is(crawl.getId())).with(DIFF_ORDER), CrawlDiffItem.class);
+    }
+
+    /**
+     * Returns one page of the diff ordered by action and URL, optionally only items with the given action or
+     * checked state.
+     */
+    CrawlDiffPageDTO findPage(Crawl crawl, String action, Boolean checked, int page, int size) {
+        if (crawl.getLegacyDiff() != null) {
+            List<CrawlDiffItem> items = crawl.getLegacyDiff().stream()
+                    .filter(item -> action == null || action.equals(item.getAction()))
+                    .filter(item -> checked == null || checked == item.isChecked())
+                    .sorted(Comparator.comparing(CrawlDiffItem::getAction).thenComparing(CrawlDiffItem::getUrl))
+                    .toList();
+            int from = (int) Math.min(items.size(), (long) page * size);
+            return new CrawlDiffPageDTO(items.subList(from, Math.min(items.size(), from + size)), page, size, items.size());
+        }
+
+        Criteria criteria = Criteria.where("crawlId").is(crawl.getId());
+        if (checked != null) {
+            criteria = criteria.and("checked").is(checked);
+        }
+        if (action != null) {
+            criteria = criteria.and("action").is(action);
+        }
+        Query query = Query.query(criteria);
+        long totalItems = action == null && checked == null ? size(crawl) : mongoTemplate.count(query, CrawlDiffItem.class);
+        List<CrawlDiffItem> items = mongoTemplate.find(query.with(DIFF_ORDER).skip((long) page * size).limit(size), CrawlDiffItem.class);
+        return new CrawlDiffPageDTO(items, page, size, totalItems);
+    }
+
+    /**
+     * Sets the checked state of one URL with a single targeted update. Diffs that are still embedded are updated
+     * in place with the positional operator.
+     */
+    CrawlDiffCheckResultDTO updateChecked(Crawl crawl, String url, boolean checked) {
+        UpdateResult result;
+        if (crawl.getLegacyDiff() != null) {
+            result = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(crawl.getId()).and("diffToPrevCrawl.url").is(url)),
+                    new Update().set("diffToPrevCrawl.$.checked", checked), Crawl.class);
+        } else {
+            result = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("crawlId").is(crawl.getId()).and("url").is(url)),
+                    new Update().set("checked", checked), CrawlDiffItem.class);
+        }
+        if (result.getMatchedCount() == 0) {
+            return null;
+        }
+        return CrawlDiffCheckResultDTO.of(result.getMatchedCount(), result.getModifiedCount(), checked);
+    }
+
+    /**
+     * Sets the checked state of the given URLs, or of all items with the action if no URLs are given. A
+     * {@code null} action matches every item.
+     */
+    CrawlDiffCheckResultDTO updateChecked(Crawl crawl, List<String> urls, String action, boolean checked) {
+        if (crawl.getLegacyDiff() != null) {
+            return updateEmbeddedChecked(crawl, urls, action, checked);
+        }
+
+        long matched = 0;
+        long modified = 0;
+        List<List<String>> urlBatches = urls == null ? Collections.singletonList(null) : partition(urls);
+        for (List<String> batch : urlBatches) {
+            Criteria criteria = Criteria.where("crawlId").is(crawl.getId());
+            if (batch != null) {
+                criteria = criteria.and("url").in(batch);
+            }
+            if (action != null) {
+                criteria = criteria.and("action").is(action);
+            }
+            UpdateResult result = mongoTemplate.updateMulti(Query.query(criteria), new Update().set("checked", checked), CrawlDiffItem.class);
+            matched += result.getMatchedCount();
+            modified += result.getModifiedCount();
+        }
+        return CrawlDiffCheckResultDTO.of(matched, modified, checked);
+    }
+
+    // Updates all matching array elements in one statement, the counts are taken from the loaded diff
+    private CrawlDiffCheckResultDTO updateEmbeddedChecked(Crawl crawl, List<String> urls, String action, boolean checked) {
+        Set<String> urlSet = urls == null ? null : new HashSet<>(urls);
+        Predicate<CrawlDiffItem> matches = item -> (urlSet == null || urlSet.contains(item.getUrl()))
+                && (action == null || action.equals(item.getAction()));
+        List<CrawlDiffItem> diff = crawl.getLegacyDiff();
+        long matched = diff.stream().filter(matches).count();
+        long modified = diff.stream().filter(matches).filter(item -> item.isChecked() != checked).count();
+
+        Update update = new Update();
+        if (urls == null && action == null) {
+            update.set("diffToPrevCrawl.$[].checked", checked);
+        } else {
+            Criteria itemCriteria = urls != null ? Criteria.where("item.url").in(urls) : Criteria.where("item.action").is(action);
+            if (urls != null && action != null) {
+                itemCriteria = itemCriteria.and("item.action").is(action);
+            }
+            update.set("diffToPrevCrawl.$[item].checked", checked).filterArray(itemCriteria);
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(crawl.getId())), update, Crawl.class);
+        return CrawlDiffCheckResultDTO.of(matched, modified, checked);
+    }
+
+    private static List<List<String>> partition(List<String> urls) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < urls.size(); from += WRITE_BATCH_SIZE) {
+            batches.add(urls.subList(from, Math.min(urls.size(), from + WRITE_BATCH_SIZE)));
+        }
+        return batches;
+    }
+
+    long size(Crawl crawl) {
+        if (crawl.getLegacyDiff() != null) {
+            return crawl.getLegacyDiff().size();
+        }
+        return (long) crawl.getAddedCount() + crawl.getRemovedCount() + crawl.getModifiedCount();
+    }
+
+    void delete(String crawlId) {
+        mongoTemplate.remove(Query.query(Criteria.where("crawlId").is(crawlId)), CrawlDiffItem.class);
+    }
+
+    /**
+     * Moves an embedded diff into the collection. Items left from an interrupted migration are replaced.
+     */
+    void migrate(Crawl crawl) {
+        List<CrawlDiffItem> diff = crawl.getLegacyDiff();
+        replace(crawl, diff == null ? List.of() : diff);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(crawl.getId())), new Update()
+                .set("addedCount", crawl.getAddedCount())
+                .set("removedCount", crawl.getRemovedCount())
+                .set("modifiedCount", crawl.getModifiedCount())
+                .unset("diffToPrevCrawl"), Crawl.class);
+    }
+
+    private static int count(List<CrawlDiffItem> diff, String action) {
+        return (int) diff.stream().filter(item -> action.equals(item.getAction())).count();
+    }
+}
@@ -0,0 +1,94 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.crawl_lease.CrawlLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out the per-site crawl leases. Taking a lease is a single upsert that only matches an expired lease,
+ * so of two concurrent attempts on a held or missing lease exactly one wins.
+ * <p>
+ * A held lease is renewed every third of its duration until it is released, so a crawl or diff that runs
+ * longer than crawl.lease.duration keeps it. Only a lease whose instance stopped renewing it expires.
+ */
+@Component
+public class CrawlLeaseStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlLeaseStore.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration leaseDuration;
+    private final ScheduledExecutorService renewalExecutor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("crawl-lease-renewal").daemon().factory());
+    private final Map<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
+
+    public CrawlLeaseStore(MongoTemplate mongoTemplate,
+                           @Value("${crawl.lease.duration:10m}") Duration leaseDuration) {
+        this.mongoTemplate = mongoTemplate;
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * Takes the lease of the site. Returns the owner token needed to release it, or {@code null} if another
+     * owner holds a lease that has not expired.
+     */
+    String tryAcquire(String siteId) {
+        String owner = UUID.randomUUID().toString();
+        Instant now = Instant.now();
+        try {
+            // A held lease doesn't match, the upsert then tries to insert the same id and fails
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(siteId).and("expiresAt").lt(now)),
+                    new Update().set("owner", owner).set("acquiredAt", now).set("expiresAt", now.plus(leaseDuration)),
+                    CrawlLease.class);
+            long renewalInterval = Math.max(1, leaseDuration.toMillis() / 3);
+            renewals.put(owner, renewalExecutor.scheduleWithFixedDelay(() -> renew(siteId, owner),
+                    renewalInterval, renewalInterval, TimeUnit.MILLISECONDS));
+            return owner;
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    void release(String siteId, String owner) {
+        stopRenewal(owner);
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(siteId).and("owner").is(owner)), CrawlLease.class);
+    }
+
+    private void renew(String siteId, String owner) {
+        try {
+            long renewed = mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(siteId).and("owner").is(owner)),
+                    new Update().set("expiresAt", Instant.now().plus(leaseDuration)), CrawlLease.class).getMatchedCount();
+            if (renewed == 0) {
+                logger.warn("Lost the crawl lease of site {}, it expired before it was renewed", siteId);
+                stopRenewal(owner);
+            }
+        } catch (RuntimeException e) {
+            // Retried with the next renewal, the lease only expires if renewing fails for its whole duration
+            logger.warn("Failed to renew the crawl lease of site {}", siteId, e);
+        }
+    }
+
+    private void stopRenewal(String owner) {
+        ScheduledFuture<?> renewal = renewals.remove(owner);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.samuelgesang.backend.crawls;
 
+import de.samuelgesang.backend.exceptions.CrawlInProgressException;
 import de.samuelgesang.backend.exceptions.SitemapException;
 import de.samuelgesang.backend.sites.Site;
 import de.samuelgesang.backend.sites.SiteService;
@@ -37,12 +38,15 @@ public class CrawlScheduleService {
     private final JavaMailSender mailSender;
     private final CrawlRepository crawlRepository;
     private final CrawlService crawlService;
+    private final CrawlDiffStore crawlDiffs;
 
-    public CrawlScheduleService(SiteService siteService, JavaMailSender mailSender, CrawlRepository crawlRepository, CrawlService crawlService1) {
+    public CrawlScheduleService(SiteService siteService, JavaMailSender mailSender, CrawlRepository crawlRepository, CrawlService crawlService1,
+                                CrawlDiffStore crawlDiffs) {
         this.siteService = siteService;
         this.mailSender = mailSender;
         this.crawlRepository = crawlRepository;
         this.crawlService = crawlService1;
+        this.crawlDiffs = crawlDiffs;
     }
 
     //    @Scheduled(cron = "0 */5 * * * *") // Runs every 5 minutes for testing
@@ -76,6 +80,8 @@ public class CrawlScheduleService {
             sendCrawlResultsEmail(site, crawl);
         } catch (SitemapException e) {
             logger.error("Error during crawl for site {}: {}", site.getName(), e.getMessage());
+        } catch (CrawlInProgressException e) {
+            logger.warn("Skipped scheduled crawl for site {}: {}", site.getName(), e.getMessage());
         } catch (Exception e) {
             logger.error("Unexpected error during crawl for site {}: {}", site.getName(), e.getMessage(), e);
         }
@@ -87,7 +93,7 @@ public class CrawlScheduleService {
             return;
         }
 
-        List<CrawlDiffItem> diffToPrevCrawl = crawl.getDiffToPrevCrawl();
+        List<CrawlDiffItem> diffToPrevCrawl = crawlDiffs.find(crawl);
         StringBuilder emailBody = createEmailBody(site, crawl);
 
         if (diffToPrevCrawl == null || diffToPrevCrawl.isEmpty()) {
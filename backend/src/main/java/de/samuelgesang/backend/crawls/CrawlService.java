@@ -1,26 +1,47 @@
 package de.samuelgesang.backend.crawls;
 
+import de.samuelgesang.backend.crawl_fingerprint.CrawlFingerprints;
+import de.samuelgesang.backend.crawl_fingerprint.CrawlFingerprintsRepository;
+import de.samuelgesang.backend.exceptions.CrawlInProgressException;
 import de.samuelgesang.backend.exceptions.ResourceNotFoundException;
 import de.samuelgesang.backend.exceptions.SitemapException;
 import de.samuelgesang.backend.exceptions.UnauthorizedAccessException;
+import de.samuelgesang.backend.sitemap_child_state.SitemapChildState;
+import de.samuelgesang.backend.sitemap_child_state.SitemapChildStateRepository;
 import de.samuelgesang.backend.sitemaps.SitemapService;
 import de.samuelgesang.backend.sites.Site;
 import de.samuelgesang.backend.sites.SiteRepository;
+import de.samuelgesang.backend.url_chunk.BulkUpdateUrlStatusDTO;
 import de.samuelgesang.backend.url_chunk.UpdateUrlStatusDTO;
 import de.samuelgesang.backend.url_chunk.UrlChunk;
+import de.samuelgesang.backend.url_chunk.UrlChunkCodec;
 import de.samuelgesang.backend.url_chunk.UrlChunkRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
-import java.net.URI;
-import java.net.URL;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -28,33 +49,151 @@ import java.util.regex.Pattern;
 public class CrawlService {
 
     private static final Logger logger = LoggerFactory.getLogger(CrawlService.class);
-    private static final int URL_CHUNK_SIZE = 1000;
+    private static final int LEGACY_URL_CHUNK_SIZE = 1000;
+    // Assumed for the first chunk of a snapshot, later chunks use the ratio measured on the previous one
+    private static final double INITIAL_COMPRESSION_RATIO = 8;
+    private static final double MAX_COMPRESSION_RATIO = 64;
     private final CrawlRepository crawlRepository;
     private final UrlChunkRepository urlChunkRepository;
     private final SitemapService sitemapService;
     private final SiteRepository siteRepository;
+    private final MongoTemplate mongoTemplate;
+    private final CrawlFingerprintsRepository crawlFingerprintsRepository;
+    private final SitemapChildStateRepository sitemapChildStateRepository;
+    private final UrlSetHeadStore urlSetHeads;
+    private final CrawlDiffStore crawlDiffs;
+    private final CrawlLeaseStore crawlLeases;
+    private final Map<String, CompletableFuture<Crawl>> crawlsInFlight = new ConcurrentHashMap<>();
 
+    @Value("${sitemap.crawl.parallelism:8}")
+    private int crawlParallelism = 8;
+
+    @Value("${sitemap.crawl.max-document-size:100MB}")
+    private DataSize maxDocumentSize = DataSize.ofMegabytes(100);
+
+    @Value("${sitemap.crawl.max-urls:1000000}")
+    private long maxUrlsPerCrawl = 1_000_000;
+
+    @Value("${sitemap.crawl.max-depth:3}")
+    private int maxSitemapDepth = 3;
+
+    @Value("${sitemap.crawl.timeout:30m}")
+    private Duration crawlTimeout = Duration.ofMinutes(30);
+
+    @Value("${crawl.snapshot.interval:30}")
+    private int snapshotInterval = 30;
+
+    @Value("${crawl.snapshot.max-diff-items:50000}")
+    private long snapshotMaxDiffItems = 50_000;
+
+    // Lastmods are only kept with the fingerprints, the crawl after one above this size reports no modified URLs
+    @Value("${crawl.fingerprints.max-urls:1000000}")
+    private int maxFingerprints = 1_000_000;
+
+    @Value("${crawl.diff.external-threshold:1000000}")
+    private long externalDiffThreshold = 1_000_000;
+
+    @Value("${crawl.diff.sort-buffer:64MB}")
+    private DataSize diffSortBuffer = DataSize.ofMegabytes(64);
+
+    @Value("${crawl.chunks.target-size:64KB}")
+    private DataSize chunkTargetSize = DataSize.ofKilobytes(64);
+
+    @Value("${crawl.chunks.write-batch-size:100}")
+    private int chunkWriteBatchSize = 100;
+
+    @Value("${crawl.diff.parallel-threshold:400000}")
+    private long parallelDiffThreshold = 400_000;
+
+    @Value("${crawl.diff.partitions:16}")
+    private int diffPartitions = 16;
+
+    @Value("${crawl.diff.temp-dir:${java.io.tmpdir}}")
+    private Path diffTempDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+
+    /**
+     * Crawls the site. A request for a site that this instance is already crawling waits for that crawl and
+     * returns its result. A crawl running elsewhere is reported as {@link CrawlInProgressException}.
+     */
     public Crawl crawlSite(Site site) throws SitemapException {
+        CompletableFuture<Crawl> crawlInFlight = new CompletableFuture<>();
+        CompletableFuture<Crawl> runningCrawl = crawlsInFlight.putIfAbsent(site.getId(), crawlInFlight);
+        if (runningCrawl != null) {
+            logger.info("Joining the running crawl of site: {}", site.getName());
+            return awaitCrawl(site, runningCrawl);
+        }
+
+        try {
+            String leaseOwner = acquireLease(site);
+            try {
+                Crawl crawl = runCrawl(site);
+                crawlInFlight.complete(crawl);
+                return crawl;
+            } finally {
+                crawlLeases.release(site.getId(), leaseOwner);
+            }
+        } catch (Throwable e) {
+            // Completed on every failure, joined requests would wait forever otherwise
+            crawlInFlight.completeExceptionally(e);
+            throw e;
+        } finally {
+            crawlsInFlight.remove(site.getId(), crawlInFlight);
+        }
+    }
+
+    private Crawl awaitCrawl(Site site, CompletableFuture<Crawl> runningCrawl) throws SitemapException {
+        try {
+            return runningCrawl.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SitemapException("Interrupted while waiting for the crawl of site: " + site.getName(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SitemapException sitemapException) {
+                throw sitemapException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SitemapException("Crawl failed for site: " + site.getName(), e.getCause());
+        }
+    }
+
+    private String acquireLease(Site site) {
+        String leaseOwner = crawlLeases.tryAcquire(site.getId());
+        if (leaseOwner == null) {
+            throw new CrawlInProgressException("A crawl of site " + site.getName() + " is already running.");
+        }
+        return leaseOwner;
+    }
+
+    private Crawl runCrawl(Site site) throws SitemapException {
         try {
+            // The caller's copy of the site may miss crawls that finished since it was loaded
+            site = findSiteById(site.getId());
             logger.info("Crawling site: {} with ID: {}", site.getName(), site.getId());
             Crawl crawl = initializeCrawl(site);
 
-            List<String> urls = fetchUrls(site.getSitemap());
-            logger.info("Total URLs fetched: {}", urls.size());
-
             List<String> crawlIds = site.getCrawlIds();
             if (crawlIds == null) {
                 crawlIds = new ArrayList<>();
             }
 
+            Map<String, SitemapChildState> previousChildren = findPreviousChildStates(site, crawlIds);
+            List<ChildSitemap> children = fetchUrls(site.getSitemap(), previousChildren);
+            Map<String, FingerprintTable> childFingerprints = fingerprintChildren(children, previousChildren);
+
             if (crawlIds.isEmpty()) {
-                handleFirstCrawl(crawl, urls);
+                handleFirstCrawl(crawl, CompactUrlSet.union(childUrlSets(children)), FingerprintTable.union(childFingerprints.values()));
+            } else if (!previousChildren.isEmpty()) {
+                handleIncrementalCrawl(site, crawl, children, previousChildren, childFingerprints, crawlIds);
             } else {
-                handleSubsequentCrawl(site, crawl, urls, crawlIds);
+                handleSubsequentCrawl(site, crawl, CompactUrlSet.union(childUrlSets(children)),
+                        FingerprintTable.union(childFingerprints.values()), crawlIds);
             }
 
             finalizeCrawl(crawl);
             saveCrawlAndSite(crawl, site, crawlIds);
+            saveChildStates(site, crawl, children, previousChildren, childFingerprints);
 
             return crawl;
         } catch (ResourceNotFoundException e) {
@@ -74,183 +213,621 @@ public class CrawlService {
 
     private Crawl initializeCrawl(Site site) {
         Crawl crawl = new Crawl();
+        // The id is assigned up front, so URL chunks can reference the crawl before it is saved
+        crawl.setId(new ObjectId().toHexString());
         crawl.setSiteId(site.getId());
         return crawl;
     }
 
-    private List<String> fetchUrls(String sitemapUrl) throws SitemapException {
-        List<String> urls = new ArrayList<>();
-        logger.info("Fetching URLs from sitemap: {}", sitemapUrl);
-        fetchUrlsFromSitemap(sitemapUrl, urls);
-        return urls;
+    private List<ChildSitemap> fetchUrls(String sitemapUrl, Map<String, SitemapChildState> previousChildren) throws SitemapException {
+        logger.info("Fetching URLs from sitemap: {} with parallelism {}", sitemapUrl, crawlParallelism);
+        Map<String, String> knownDigests = new HashMap<>();
+        previousChildren.forEach((url, state) -> knownDigests.put(url, state.getDigest()));
+
+        CrawlBudget budget = new CrawlBudget(crawlParallelism, maxDocumentSize.toBytes(), maxUrlsPerCrawl, maxSitemapDepth, crawlTimeout);
+        SitemapUrlCollector collector = new SitemapUrlCollector(sitemapService, budget, knownDigests);
+        List<ChildSitemap> children = collector.collect(sitemapUrl);
+        logger.info("Fetched {} sitemaps for {}, {} served from cache, {} unchanged since the last crawl",
+                collector.getSitemapsFetched(), sitemapUrl, collector.getSitemapsFromCache(), collector.getSitemapsUnchanged());
+        return children;
     }
 
-    private void handleFirstCrawl(Crawl crawl, List<String> urls) {
-        List<String> urlChunkIds = saveUrlChunks(urls, crawl.getId());
-        crawl.setUrlChunkIds(urlChunkIds);
-        crawl.setPrevCrawlId(null);
-        crawl.setDiffToPrevCrawl(Collections.emptyList());
+    private List<CompactUrlSet> childUrlSets(List<ChildSitemap> children) {
+        return children.stream().map(ChildSitemap::urls).toList();
     }
 
-    private void handleSubsequentCrawl(Site site, Crawl crawl, List<String> urls, List<String> crawlIds) throws ResourceNotFoundException {
-        String firstCrawlId = crawlIds.getFirst();
-        Crawl firstCrawl = findCrawlById(firstCrawlId);
-        List<String> reconstructedPrevUrls = loadUrlsFromChunks(firstCrawl.getUrlChunkIds());
+    // Child states can only be trusted if they were completely written by the latest crawl
+    private Map<String, SitemapChildState> findPreviousChildStates(Site site, List<String> crawlIds) {
+        if (crawlIds.isEmpty()) {
+            return Map.of();
+        }
+        boolean complete = crawlFingerprintsRepository.findById(crawlIds.getLast())
+                .map(fingerprints -> fingerprints.isChildStates() && !fingerprints.isCollisions() && fingerprints.getHashes() != null)
+                .orElse(false);
+        if (!complete) {
+            return Map.of();
+        }
+        Map<String, SitemapChildState> states = new HashMap<>();
+        for (SitemapChildState state : sitemapChildStateRepository.findBySiteId(site.getId())) {
+            states.put(state.getSitemapUrl(), state);
+        }
+        return states;
+    }
 
-        applyPreviousDiffs(reconstructedPrevUrls, crawlIds);
-        List<CrawlDiffItem> diffToPrevCrawl = calculateDiff(urls, reconstructedPrevUrls);
-        logger.info("Site: {} - diffToPrevCrawl: {}", site.getName(), diffToPrevCrawl);
-        crawl.setDiffToPrevCrawl(diffToPrevCrawl);
+    private Map<String, FingerprintTable> fingerprintChildren(List<ChildSitemap> children, Map<String, SitemapChildState> previousChildren) {
+        Map<String, FingerprintTable> fingerprints = new HashMap<>();
+        for (ChildSitemap child : children) {
+            SitemapChildState previousChild = previousChildren.get(child.url());
+            fingerprints.put(child.url(), child.unchanged()
+                    ? FingerprintTable.unpack(previousChild.getHashes(), previousChild.getLastModified())
+                    : child.fingerprints());
+        }
+        return fingerprints;
+    }
 
-        crawl.setUrlChunkIds(Collections.emptyList());
-        crawl.setPrevCrawlId(crawlIds.getLast());
+    private void handleFirstCrawl(Crawl crawl, CompactUrlSet urls, FingerprintTable fingerprints) {
+        storeSnapshot(crawl, urls);
+        crawl.setPrevCrawlId(null);
+        saveFingerprints(crawl, fingerprints, hasCollisions(urls, fingerprints), 0, 0);
+        urlSetHeads.save(crawl.getSiteId(), null, crawl.getId(), urls, false);
     }
 
-    private void applyPreviousDiffs(List<String> reconstructedPrevUrls, List<String> crawlIds) {
-        for (String id : crawlIds.subList(1, crawlIds.size())) {
-            Crawl previousCrawl = crawlRepository.findById(id).orElse(null);
-            if (previousCrawl != null && previousCrawl.getDiffToPrevCrawl() != null) {
-                applyDiff(reconstructedPrevUrls, previousCrawl.getDiffToPrevCrawl());
+    private void handleSubsequentCrawl(Site site, Crawl crawl, CompactUrlSet urls, FingerprintTable fingerprints,
+                                       List<String> crawlIds) throws ResourceNotFoundException, IOException {
+        boolean collisions = hasCollisions(urls, fingerprints);
+        if (collisions) {
+            logger.warn("Fingerprint collision in crawl of site: {}, falling back to a full diff", site.getName());
+        }
+        CrawlFingerprints previousFingerprints = collisions ? null : findUsableFingerprints(crawlIds.getLast());
+        CompactUrlSet head = urlSetHeads.find(site.getId(), crawlIds.getLast());
+
+        List<CrawlDiffItem> diffToPrevCrawl;
+        int crawlsSinceSnapshot;
+        long diffItemsSinceSnapshot;
+        if (previousFingerprints != null) {
+            diffToPrevCrawl = calculateDiffFromFingerprints(urls, fingerprints, previousFingerprints, head, crawlIds);
+            crawlsSinceSnapshot = previousFingerprints.getCrawlsSinceSnapshot() + 1;
+            diffItemsSinceSnapshot = previousFingerprints.getDiffItemsSinceSnapshot() + diffToPrevCrawl.size();
+        } else {
+            // The previous lastmods are only stored with the fingerprints, so these diffs compare URLs only and
+            // contain no modified items. This applies after fingerprint collisions and after crawls too large for
+            // crawl.fingerprints.max-urls, whichever of the three diffs below is used.
+            DiffChain chain = findDiffChain(crawlIds);
+            // Checked first, a head that is still cached must not lead to an in-memory diff of a set this large
+            if (isExternalDiffDue(urls, chain)) {
+                logger.info("Using external sort for the diff of site: {}", site.getName());
+                diffToPrevCrawl = calculateDiffExternally(urls, chain);
+            } else if (head != null) {
+                diffToPrevCrawl = calculateDiff(urls, head);
+            } else {
+                diffToPrevCrawl = calculateDiff(urls, reconstructUrls(chain));
             }
+            crawlsSinceSnapshot = chain.crawlsAfterSnapshot().size() + 1;
+            diffItemsSinceSnapshot = chain.diffItemsSinceSnapshot() + diffToPrevCrawl.size();
+        }
+        logger.info("Site: {} - diffToPrevCrawl: {}", site.getName(), diffToPrevCrawl);
+        crawlDiffs.save(crawl, diffToPrevCrawl);
+        crawl.setPrevCrawlId(crawlIds.getLast());
+
+        if (isSnapshotDue(crawlsSinceSnapshot, diffItemsSinceSnapshot)) {
+            logger.info("Storing full URL snapshot for site: {}", site.getName());
+            storeSnapshot(crawl, urls);
+            crawlsSinceSnapshot = 0;
+            diffItemsSinceSnapshot = 0;
+        } else {
+            crawl.setUrlChunkIds(Collections.emptyList());
         }
+        saveFingerprints(crawl, fingerprints, collisions, crawlsSinceSnapshot, diffItemsSinceSnapshot);
+        urlSetHeads.save(site.getId(), crawlIds.getLast(), crawl.getId(), urls, !changesUrls(diffToPrevCrawl));
     }
 
-    private void finalizeCrawl(Crawl crawl) {
-        crawl.setFinishedAt(Instant.now().toString());
+    private boolean changesUrls(List<CrawlDiffItem> diff) {
+        return diff.stream().anyMatch(item -> "add".equals(item.getAction()) || "remove".equals(item.getAction()));
     }
 
-    private void saveCrawlAndSite(Crawl crawl, Site site, List<String> crawlIds) {
-        crawlRepository.save(crawl);
-        logger.info("Crawl saved with ID: {}", crawl.getId());
+    // The table merges equal hashes, so two distinct URLs with the same hash leave it smaller than the URL set
+    private boolean hasCollisions(CompactUrlSet urls, FingerprintTable fingerprints) {
+        return fingerprints.size() != urls.size();
+    }
 
-        crawlIds.add(crawl.getId());
-        site.setCrawlIds(crawlIds);
-        siteRepository.save(site);
-        logger.info("Site updated with new crawl ID: {}", crawl.getId());
+    // Fingerprints are only usable if the previous crawl has no two URLs with the same hash either
+    private CrawlFingerprints findUsableFingerprints(String previousCrawlId) {
+        return crawlFingerprintsRepository.findById(previousCrawlId)
+                .filter(previous -> !previous.isCollisions() && previous.getHashes() != null)
+                .orElse(null);
     }
 
-    private List<String> saveUrlChunks(List<String> urls, String crawlId) {
-        List<String> urlChunkIds = new ArrayList<>();
-        for (int i = 0; i < urls.size(); i += URL_CHUNK_SIZE) {
-            List<String> chunk = urls.subList(i, Math.min(i + URL_CHUNK_SIZE, urls.size()));
-            UrlChunk urlChunk = new UrlChunk();
-            urlChunk.setCrawlId(crawlId);
-            urlChunk.setUrls(chunk);
-            UrlChunk savedChunk = urlChunkRepository.save(urlChunk);
-            urlChunkIds.add(savedChunk.getId());
+    private void saveFingerprints(Crawl crawl, FingerprintTable fingerprints, boolean collisions,
+                                  int crawlsSinceSnapshot, long diffItemsSinceSnapshot) {
+        if (fingerprints.size() > maxFingerprints) {
+            logger.info("Not storing fingerprints for crawl {} with {} URLs, the next crawl reports no modified URLs",
+                    crawl.getId(), fingerprints.size());
+            return;
         }
-        return urlChunkIds;
+        CrawlFingerprints crawlFingerprints = new CrawlFingerprints();
+        crawlFingerprints.setCrawlId(crawl.getId());
+        crawlFingerprints.setSiteId(crawl.getSiteId());
+        crawlFingerprints.setCount(fingerprints.size());
+        crawlFingerprints.setHashes(fingerprints.packFingerprints());
+        crawlFingerprints.setLastModified(fingerprints.packLastModified());
+        crawlFingerprints.setCollisions(collisions);
+        crawlFingerprints.setCrawlsSinceSnapshot(crawlsSinceSnapshot);
+        crawlFingerprints.setDiffItemsSinceSnapshot(diffItemsSinceSnapshot);
+        crawlFingerprintsRepository.save(crawlFingerprints);
     }
 
-    public List<String> loadUrlsFromChunks(List<String> urlChunkIds) {
-        if (urlChunkIds == null) {
+    /**
+     * Diffs against the fingerprints of the previous crawl. Unchanged crawls need no further reads, added and
+     * modified URLs are taken from the current crawl, and only removed URLs have to be looked up in the previous crawl.
+     */
+    private List<CrawlDiffItem> calculateDiffFromFingerprints(CompactUrlSet urls, FingerprintTable fingerprints,
+                                                              CrawlFingerprints previousFingerprints, CompactUrlSet head,
+                                                              List<String> crawlIds) throws IOException {
+        FingerprintTable previous = FingerprintTable.unpack(previousFingerprints.getHashes(), previousFingerprints.getLastModified());
+        if (fingerprints.sameAs(previous)) {
             return new ArrayList<>();
         }
-        List<String> urls = new ArrayList<>();
-        for (String chunkId : urlChunkIds) {
-            Optional<UrlChunk> chunk = urlChunkRepository.findById(chunkId);
-            chunk.ifPresent(urlChunk -> urls.addAll(urlChunk.getUrls()));
+
+        long[] added = UrlFingerprints.difference(fingerprints.fingerprints(), previous.fingerprints());
+        long[] modified = fingerprints.modifiedSince(previous);
+        List<CrawlDiffItem> diff = new ArrayList<>();
+        addDiffItems(diff, "add", urls, added);
+
+        long[] removed = UrlFingerprints.difference(previous.fingerprints(), fingerprints.fingerprints());
+        for (String url : resolvePreviousUrls(removed, head, crawlIds)) {
+            diff.add(CrawlDiffItem.of("remove", url));
+        }
+        addDiffItems(diff, "modified", urls, modified);
+        logger.info("Fingerprints changed: {} added, {} removed, {} modified", added.length, removed.length, modified.length);
+        return diff;
+    }
+
+    // Adds an item for every URL of the set whose fingerprint is in the sorted array, in URL order
+    private void addDiffItems(List<CrawlDiffItem> diff, String action, CompactUrlSet urls, long[] fingerprints) {
+        Iterator<byte[]> keys = urls.keys();
+        while (keys.hasNext() && fingerprints.length > 0) {
+            byte[] key = keys.next();
+            if (Arrays.binarySearch(fingerprints, UrlFingerprints.hash(key)) >= 0) {
+                diff.add(CrawlDiffItem.of(action, CompactUrlSet.decode(key)));
+            }
         }
-        return urls;
     }
 
-    private void applyDiff(List<String> urls, List<CrawlDiffItem> diffToPrevCrawl) {
-        for (CrawlDiffItem item : diffToPrevCrawl) {
-            if ("add".equals(item.getAction())) {
-                urls.add(item.getUrl());
-            } else if ("remove".equals(item.getAction())) {
-                urls.remove(item.getUrl());
+    /**
+     * Diffs only the child sitemaps that changed since the previous crawl. URLs that moved between
+     * child sitemaps are no change, so candidates are checked against the fingerprints of the whole crawl.
+     * Only changed children can hold a newer lastmod, so modified URLs are found in them as well.
+     */
+    private void handleIncrementalCrawl(Site site, Crawl crawl, List<ChildSitemap> children, Map<String, SitemapChildState> previousChildren,
+                                        Map<String, FingerprintTable> childFingerprints, List<String> crawlIds) throws IOException {
+        CrawlFingerprints previousFingerprints = findCrawlFingerprints(crawlIds.getLast());
+        CompactUrlSet head = urlSetHeads.find(site.getId(), crawlIds.getLast());
+        FingerprintTable previousTable = FingerprintTable.unpack(previousFingerprints.getHashes(), previousFingerprints.getLastModified());
+        long[] previous = previousTable.fingerprints();
+        FingerprintTable fingerprints = FingerprintTable.union(childFingerprints.values());
+        long[] modified = fingerprints.modifiedSince(previousTable);
+
+        List<String> addedUrls = new ArrayList<>();
+        List<String> modifiedUrls = new ArrayList<>();
+        List<long[]> removedCandidates = new ArrayList<>();
+        Set<String> currentChildUrls = new HashSet<>();
+        int changedChildren = 0;
+        boolean collisions = false;
+        for (ChildSitemap child : children) {
+            currentChildUrls.add(child.url());
+            if (child.unchanged()) {
+                continue;
+            }
+            changedChildren++;
+            // Recorded so the next crawl takes the full diff path
+            collisions |= hasCollisions(child.urls(), child.fingerprints());
+            SitemapChildState previousChild = previousChildren.get(child.url());
+            long[] previousChildFingerprints = previousChild == null ? new long[0] : UrlFingerprints.unpack(previousChild.getHashes());
+            Iterator<byte[]> keys = child.urls().keys();
+            while (keys.hasNext()) {
+                byte[] key = keys.next();
+                long hash = UrlFingerprints.hash(key);
+                if (Arrays.binarySearch(previousChildFingerprints, hash) < 0 && Arrays.binarySearch(previous, hash) < 0) {
+                    addedUrls.add(CompactUrlSet.decode(key));
+                } else if (Arrays.binarySearch(modified, hash) >= 0) {
+                    modifiedUrls.add(CompactUrlSet.decode(key));
+                }
+            }
+            removedCandidates.add(UrlFingerprints.difference(previousChildFingerprints, childFingerprints.get(child.url()).fingerprints()));
+        }
+        previousChildren.forEach((url, state) -> {
+            if (!currentChildUrls.contains(url)) {
+                removedCandidates.add(UrlFingerprints.unpack(state.getHashes()));
             }
+        });
+        long[] removed = UrlFingerprints.difference(UrlFingerprints.union(removedCandidates), fingerprints.fingerprints());
+        logger.info("Site: {} - {} of {} child sitemaps changed", site.getName(), changedChildren, children.size());
+
+        List<CrawlDiffItem> diffToPrevCrawl = new ArrayList<>();
+        for (String url : CompactUrlSet.copyOf(addedUrls)) {
+            diffToPrevCrawl.add(CrawlDiffItem.of("add", url));
+        }
+        int addedCount = diffToPrevCrawl.size();
+        for (String url : resolvePreviousUrls(removed, head, crawlIds)) {
+            diffToPrevCrawl.add(CrawlDiffItem.of("remove", url));
+        }
+        int removedCount = diffToPrevCrawl.size() - addedCount;
+        for (String url : CompactUrlSet.copyOf(modifiedUrls)) {
+            diffToPrevCrawl.add(CrawlDiffItem.of("modified", url));
+        }
+        // The full diff can hold millions of URLs, so it is only logged at debug level
+        logger.info("Site: {} - {} added, {} removed, {} modified", site.getName(), addedCount, removedCount,
+                diffToPrevCrawl.size() - addedCount - removedCount);
+        logger.debug("Site: {} - diffToPrevCrawl: {}", site.getName(), diffToPrevCrawl);
+        crawlDiffs.save(crawl, diffToPrevCrawl);
+        crawl.setPrevCrawlId(crawlIds.getLast());
+
+        int crawlsSinceSnapshot = previousFingerprints.getCrawlsSinceSnapshot() + 1;
+        long diffItemsSinceSnapshot = previousFingerprints.getDiffItemsSinceSnapshot() + diffToPrevCrawl.size();
+        boolean snapshotDue = isSnapshotDue(crawlsSinceSnapshot, diffItemsSinceSnapshot);
+        // Unchanged children are not held in memory, so the full set is derived from the head, or from the chain
+        // if a snapshot is due. Without a head the chain is not replayed otherwise, the next full diff stores one.
+        boolean urlsChanged = changesUrls(diffToPrevCrawl);
+        CompactUrlSet urls = null;
+        if (head != null && !urlsChanged) {
+            urls = head;
+        } else if (head != null || snapshotDue) {
+            // The head is shared with the cache, so changes are applied to a copy
+            urls = head != null ? CompactUrlSet.union(List.of(head)) : reconstructUrls(findDiffChain(crawlIds));
+            urls.apply(diffToPrevCrawl);
+            urls.compact();
+        }
+        if (urls != null) {
+            urlSetHeads.save(site.getId(), crawlIds.getLast(), crawl.getId(), urls, !urlsChanged);
+        }
+        if (snapshotDue) {
+            logger.info("Storing full URL snapshot for site: {}", site.getName());
+            storeSnapshot(crawl, urls);
+            crawlsSinceSnapshot = 0;
+            diffItemsSinceSnapshot = 0;
+        } else {
+            crawl.setUrlChunkIds(Collections.emptyList());
         }
+        saveFingerprints(crawl, fingerprints, collisions, crawlsSinceSnapshot, diffItemsSinceSnapshot);
     }
 
-    public List<CrawlDiffItem> calculateDiff(List<String> currentUrls, List<String> previousUrls) {
-        Set<String> currentUrlSet = new HashSet<>(currentUrls);
-        Set<String> previousUrlSet = new HashSet<>(previousUrls);
+    private CrawlFingerprints findCrawlFingerprints(String crawlId) {
+        return crawlFingerprintsRepository.findById(crawlId)
+                .orElseThrow(() -> new ResourceNotFoundException("Crawl fingerprints not found: " + crawlId));
+    }
 
-        List<CrawlDiffItem> diff = new ArrayList<>();
+    private void saveChildStates(Site site, Crawl crawl, List<ChildSitemap> children, Map<String, SitemapChildState> previousChildren,
+                                 Map<String, FingerprintTable> childFingerprints) {
+        if (!crawlFingerprintsRepository.existsById(crawl.getId())) {
+            return;
+        }
+        if (previousChildren.isEmpty()) {
+            // States left from an older crawl can't be trusted, they are rebuilt from scratch
+            sitemapChildStateRepository.deleteBySiteId(site.getId());
+        }
 
-        // URLs added in current crawl
-        for (String url : currentUrlSet) {
-            if (!previousUrlSet.contains(url)) {
-                CrawlDiffItem item = new CrawlDiffItem();
-                item.setAction("add");
-                item.setUrl(url);
-                item.setChecked(false);
-                diff.add(item);
+        Set<String> currentChildUrls = new HashSet<>();
+        List<SitemapChildState> changedStates = new ArrayList<>();
+        for (ChildSitemap child : children) {
+            currentChildUrls.add(child.url());
+            if (child.unchanged()) {
+                continue;
             }
+            FingerprintTable fingerprints = childFingerprints.get(child.url());
+            SitemapChildState state = new SitemapChildState();
+            state.setId(SitemapChildState.idFor(site.getId(), child.url()));
+            state.setSiteId(site.getId());
+            state.setSitemapUrl(child.url());
+            state.setDigest(child.digest());
+            state.setCrawlId(crawl.getId());
+            state.setCount(fingerprints.size());
+            state.setHashes(fingerprints.packFingerprints());
+            state.setLastModified(fingerprints.packLastModified());
+            changedStates.add(state);
         }
+        sitemapChildStateRepository.saveAll(changedStates);
+        List<String> removedStateIds = previousChildren.keySet().stream()
+                .filter(url -> !currentChildUrls.contains(url))
+                .map(url -> SitemapChildState.idFor(site.getId(), url))
+                .toList();
+        sitemapChildStateRepository.deleteAllById(removedStateIds);
+
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(crawl.getId())),
+                new Update().set("childStates", true), CrawlFingerprints.class);
+    }
 
-        // URLs removed in current crawl
-        for (String url : previousUrlSet) {
-            if (!currentUrlSet.contains(url)) {
-                CrawlDiffItem item = new CrawlDiffItem();
-                item.setAction("remove");
-                item.setUrl(url);
-                item.setChecked(false);
-                diff.add(item);
+    // Reconstruction starts from the most recent snapshot and only replays the diffs of the crawls after it
+    private DiffChain findDiffChain(List<String> crawlIds) {
+        Deque<Crawl> crawlsAfterSnapshot = new ArrayDeque<>();
+        long diffItemsSinceSnapshot = 0;
+        Crawl snapshot = null;
+        for (int i = crawlIds.size() - 1; i > 0 && snapshot == null; i--) {
+            Crawl previousCrawl = crawlRepository.findById(crawlIds.get(i)).orElse(null);
+            if (previousCrawl == null) {
+                continue;
             }
+            if (previousCrawl.isSnapshot()) {
+                snapshot = previousCrawl;
+            } else {
+                crawlsAfterSnapshot.push(previousCrawl);
+                diffItemsSinceSnapshot += crawlDiffs.size(previousCrawl);
+            }
+        }
+        if (snapshot == null) {
+            snapshot = findCrawlById(crawlIds.getFirst());
         }
+        return new DiffChain(snapshot, crawlsAfterSnapshot, diffItemsSinceSnapshot);
+    }
 
-        return diff;
+    private CompactUrlSet reconstructUrls(DiffChain chain) {
+        CompactUrlSet urls = loadUrlsFromChunks(chain.snapshot().getUrlChunkIds());
+        for (Crawl previousCrawl : chain.crawlsAfterSnapshot()) {
+            urls.apply(crawlDiffs.find(previousCrawl));
+        }
+        urls.compact();
+        return urls;
     }
 
-    private void fetchUrlsFromSitemap(String sitemapUrl, List<String> urls) throws SitemapException {
-        try {
-            logger.info("Fetching content from sitemap URL: {}", sitemapUrl);
-            URL url = new URI(sitemapUrl).toURL();
-            String content = sitemapService.fetchContentFromURL(url);
+    private boolean isExternalDiffDue(CompactUrlSet urls, DiffChain chain) {
+        Crawl snapshot = chain.snapshot();
+        List<String> snapshotChunkIds = snapshot.getUrlChunkIds();
+        // Snapshots stored before chunks were sized by bytes have no count, but exactly 1000 URLs per chunk
+        long snapshotUrls = snapshot.getUrlCount() > 0 ? snapshot.getUrlCount()
+                : snapshotChunkIds == null ? 0 : (long) snapshotChunkIds.size() * LEGACY_URL_CHUNK_SIZE;
+        return Math.max(urls.size(), snapshotUrls) >= externalDiffThreshold;
+    }
 
-            if (!sitemapService.isXML(content)) {
-                throw new SitemapException("Invalid sitemap URL: The URL returns an HTML document instead of an XML.");
+    // Looks up the URLs of the last crawl that have one of the given fingerprints, in its head if there is one
+    private CompactUrlSet resolvePreviousUrls(long[] fingerprints, CompactUrlSet head, List<String> crawlIds) throws IOException {
+        List<String> urls = new ArrayList<>();
+        if (fingerprints.length > 0 && head != null) {
+            Iterator<byte[]> keys = head.keys();
+            while (keys.hasNext()) {
+                byte[] key = keys.next();
+                if (Arrays.binarySearch(fingerprints, UrlFingerprints.hash(key)) >= 0) {
+                    urls.add(CompactUrlSet.decode(key));
+                }
             }
+        } else if (fingerprints.length > 0) {
+            forEachPreviousUrl(findDiffChain(crawlIds), url -> {
+                if (Arrays.binarySearch(fingerprints, UrlFingerprints.hash(url.getBytes(StandardCharsets.UTF_8))) >= 0) {
+                    urls.add(url);
+                }
+            });
+        }
+        return CompactUrlSet.copyOf(urls);
+    }
 
-            extractUrlsFromSitemap(content, urls);
-        } catch (Exception e) {
-            String errorMessage = "Error fetching URLs from sitemap: " + sitemapUrl;
-            throw new SitemapException(errorMessage, e);
+    /**
+     * Diffs against the previous crawl without building its URL set in memory. The snapshot URLs are sorted
+     * into runs on disk, corrected by the net effect of the diffs since the snapshot, and merge-joined with
+     * the current URLs. The result is identical to {@link #calculateDiff(CompactUrlSet, CompactUrlSet)}.
+     */
+    private List<CrawlDiffItem> calculateDiffExternally(CompactUrlSet urls, DiffChain chain) throws IOException {
+        try (ExternalUrlSorter previousUrls = new ExternalUrlSorter(diffSortBuffer.toBytes(), diffTempDirectory)) {
+            forEachPreviousUrl(chain, previousUrls::add);
+            logger.info("Sorted previous URLs into {} runs", previousUrls.getRunCount());
+            return UrlSetDiff.diff(urls.keys(), previousUrls.sorted());
+        }
+    }
+
+    /**
+     * Streams the URLs of the last crawl in the chain without building a set: the snapshot URLs, corrected
+     * by the net effect of the diffs since the snapshot. URLs may be reported more than once.
+     */
+    private void forEachPreviousUrl(DiffChain chain, UrlConsumer consumer) throws IOException {
+        // With set semantics only the last action per URL matters, modified URLs stay in the set
+        Map<String, String> netChanges = new HashMap<>();
+        for (Crawl previousCrawl : chain.crawlsAfterSnapshot()) {
+            crawlDiffs.find(previousCrawl).stream()
+                    .filter(item -> !"modified".equals(item.getAction()))
+                    .forEach(item -> netChanges.put(item.getUrl(), item.getAction()));
+        }
+
+        try (Stream<String> snapshotUrls = streamUrlsFromChunks(chain.snapshot().getUrlChunkIds())) {
+            Iterator<String> urls = snapshotUrls.iterator();
+            while (urls.hasNext()) {
+                String url = urls.next();
+                if (!netChanges.containsKey(url)) {
+                    consumer.accept(url);
+                }
+            }
+        }
+        for (Map.Entry<String, String> change : netChanges.entrySet()) {
+            if ("add".equals(change.getValue())) {
+                consumer.accept(change.getKey());
+            }
         }
     }
 
-    private void extractUrlsFromSitemap(String content, List<String> urls) throws SitemapException {
+    private boolean isSnapshotDue(int crawlsSinceSnapshot, long diffItemsSinceSnapshot) {
+        return crawlsSinceSnapshot >= snapshotInterval || diffItemsSinceSnapshot >= snapshotMaxDiffItems;
+    }
+
+    /**
+     * Adds snapshots to a diff chain that was created before snapshots existed. Only the crawls after the latest
+     * snapshot are replayed, and a snapshot is stored wherever a new crawl would have stored one. A site whose
+     * tail is shorter than the snapshot interval is left alone without taking its lease, so repeated runs only
+     * read the tail of each chain. Returns {@code false} without changes if the lease is taken.
+     */
+    public boolean createMissingSnapshots(Site site) {
+        if (!isSnapshotMissing(findSiteById(site.getId()).getCrawlIds())) {
+            return true;
+        }
+        String leaseOwner = crawlLeases.tryAcquire(site.getId());
+        if (leaseOwner == null) {
+            return false;
+        }
         try {
-            logger.info("Extracting URLs from sitemap content.");
-            // Pattern to match <loc> tags
-            Pattern locPattern = Pattern.compile("<loc>(.*?)</loc>");
-            Matcher locMatcher = locPattern.matcher(content);
-            while (locMatcher.find()) {
-                String url = locMatcher.group(1).trim();
-                urls.add(url);
+            // Read again under the lease, a crawl may have added a snapshot since
+            List<String> crawlIds = findSiteById(site.getId()).getCrawlIds();
+            if (isSnapshotMissing(crawlIds)) {
+                createMissingSnapshots(findDiffChain(crawlIds), site);
             }
+            return true;
+        } finally {
+            crawlLeases.release(site.getId(), leaseOwner);
+        }
+    }
+
+    private boolean isSnapshotMissing(List<String> crawlIds) {
+        if (crawlIds == null || crawlIds.size() <= 1) {
+            return false;
+        }
+        DiffChain chain = findDiffChain(crawlIds);
+        return isSnapshotDue(chain.crawlsAfterSnapshot().size(), chain.diffItemsSinceSnapshot());
+    }
 
-            // Pattern to match nested <sitemap> tags and their <loc> tags
-            Pattern sitemapPattern = Pattern.compile("<sitemap>.*?<loc>(.*?)</loc>.*?</sitemap>", Pattern.DOTALL);
-            Matcher sitemapMatcher = sitemapPattern.matcher(content);
-            while (sitemapMatcher.find()) {
-                String nestedSitemapUrl = sitemapMatcher.group(1).trim();
-                fetchNestedSitemapUrls(nestedSitemapUrl, urls);
+    private void createMissingSnapshots(DiffChain chain, Site site) {
+        CompactUrlSet urls = loadUrlsFromChunks(chain.snapshot().getUrlChunkIds());
+        int crawlsSinceSnapshot = 0;
+        long diffItemsSinceSnapshot = 0;
+        for (Crawl crawl : chain.crawlsAfterSnapshot()) {
+            urls.apply(crawlDiffs.find(crawl));
+            crawlsSinceSnapshot++;
+            diffItemsSinceSnapshot += crawlDiffs.size(crawl);
+            if (isSnapshotDue(crawlsSinceSnapshot, diffItemsSinceSnapshot)) {
+                List<String> urlChunkIds = saveUrlChunks(urls, crawl.getId());
+                // Only touch the snapshot fields, so concurrent changes to the diff are not overwritten
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(crawl.getId())),
+                        new Update().set("snapshot", true).set("urlChunkIds", urlChunkIds).set("urlCount", urls.size()), Crawl.class);
+                logger.info("Created snapshot for crawl {} of site {}", crawl.getId(), site.getName());
+                crawlsSinceSnapshot = 0;
+                diffItemsSinceSnapshot = 0;
             }
-        } catch (Exception e) {
-            String errorMessage = "Error extracting URLs from sitemap content.";
-            throw new SitemapException(errorMessage, e);
         }
     }
 
-    private void fetchNestedSitemapUrls(String nestedSitemapUrl, List<String> urls) throws SitemapException {
-        try {
-            fetchUrlsFromSitemap(nestedSitemapUrl, urls);
-        } catch (Exception e) {
-            String errorMessage = "Error fetching nested sitemap: " + nestedSitemapUrl;
-            throw new SitemapException(errorMessage, e);
+    private void finalizeCrawl(Crawl crawl) {
+        crawl.setFinishedAt(Instant.now().toString());
+    }
+
+    private void saveCrawlAndSite(Crawl crawl, Site site, List<String> crawlIds) {
+        crawlRepository.save(crawl);
+        logger.info("Crawl saved with ID: {}", crawl.getId());
+
+        // Appended in place, so concurrent edits of the site are not overwritten
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(site.getId())),
+                new Update().push("crawlIds", crawl.getId()), Site.class);
+        crawlIds.add(crawl.getId());
+        site.setCrawlIds(crawlIds);
+        logger.info("Site updated with new crawl ID: {}", crawl.getId());
+    }
+
+    private void storeSnapshot(Crawl crawl, CompactUrlSet urls) {
+        crawl.setUrlChunkIds(saveUrlChunks(urls, crawl.getId()));
+        crawl.setUrlCount(urls.size());
+        crawl.setSnapshot(true);
+    }
+
+    /**
+     * Stores the URLs in compressed chunks of about crawl.chunks.target-size each. Chunks are inserted in unordered
+     * bulk writes with ids assigned up front, so Mongo can apply each batch at once.
+     */
+    private List<String> saveUrlChunks(CompactUrlSet urls, String crawlId) {
+        List<String> urlChunkIds = new ArrayList<>();
+        List<UrlChunk> batch = new ArrayList<>(chunkWriteBatchSize);
+        List<String> chunk = new ArrayList<>();
+        long chunkChars = 0;
+        double compressionRatio = INITIAL_COMPRESSION_RATIO;
+        for (String url : urls) {
+            chunk.add(url);
+            chunkChars += url.length();
+            if (chunkChars >= chunkTargetSize.toBytes() * compressionRatio) {
+                UrlChunk urlChunk = createUrlChunk(chunk, crawlId, urlChunkIds);
+                compressionRatio = Math.clamp((double) chunkChars / urlChunk.getData().length, 1, MAX_COMPRESSION_RATIO);
+                batch.add(urlChunk);
+                chunk = new ArrayList<>();
+                chunkChars = 0;
+                if (batch.size() >= chunkWriteBatchSize) {
+                    insertUrlChunks(batch);
+                    batch = new ArrayList<>(chunkWriteBatchSize);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            batch.add(createUrlChunk(chunk, crawlId, urlChunkIds));
+        }
+        insertUrlChunks(batch);
+        return urlChunkIds;
+    }
+
+    private UrlChunk createUrlChunk(List<String> urls, String crawlId, List<String> urlChunkIds) {
+        UrlChunk urlChunk = new UrlChunk();
+        urlChunk.setId(new ObjectId().toHexString());
+        urlChunk.setCrawlId(crawlId);
+        urlChunk.setFormat(UrlChunkCodec.FRONT_CODED_DEFLATE);
+        urlChunk.setCount(urls.size());
+        urlChunk.setData(UrlChunkCodec.encode(urls));
+        urlChunkIds.add(urlChunk.getId());
+        return urlChunk;
+    }
+
+    private void insertUrlChunks(List<UrlChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UrlChunk.class)
+                .insert(chunks)
+                .execute();
+    }
+
+    public CompactUrlSet loadUrlsFromChunks(List<String> urlChunkIds) {
+        CompactUrlSet urls = new CompactUrlSet();
+        try (Stream<String> chunkUrls = streamUrlsFromChunks(urlChunkIds)) {
+            chunkUrls.forEach(urls::add);
+        }
+        urls.compact();
+        return urls;
+    }
+
+    /**
+     * Streams the URLs of the chunks with a single query, one chunk at a time from the cursor. Chunk ids are
+     * ObjectIds created in URL order, so sorting by id keeps the original order. The stream must be closed.
+     */
+    public Stream<String> streamUrlsFromChunks(List<String> urlChunkIds) {
+        if (urlChunkIds == null || urlChunkIds.isEmpty()) {
+            return Stream.empty();
         }
+        Query query = Query.query(Criteria.where("_id").in(urlChunkIds)).with(Sort.by("_id"));
+        return mongoTemplate.stream(query, UrlChunk.class)
+                .flatMap(chunk -> UrlChunkCodec.urlsOf(chunk).stream());
+    }
+
+    // Walks both sorted sets once, so no hashed copies of the URLs are needed. Large sets are walked in parallel ranges.
+    public List<CrawlDiffItem> calculateDiff(CompactUrlSet currentUrls, CompactUrlSet previousUrls) {
+        boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1
+                && (long) currentUrls.size() + previousUrls.size() >= parallelDiffThreshold;
+        return UrlSetDiff.diff(currentUrls, previousUrls, parallel ? diffPartitions : 1);
     }
 
+
     public void deleteCrawl(String crawlId, String userId) {
         Crawl crawl = findCrawlById(crawlId);
         Site site = findSiteById(crawl.getSiteId());
         authorizeUser(site, userId);
-        removeUrlChunks(crawlId);
+        // Deleting rewrites the diff chain, which a running crawl may be reading
+        String leaseOwner = acquireLease(site);
+        try {
+            deleteCrawl(findSiteById(site.getId()), crawl);
+        } finally {
+            crawlLeases.release(site.getId(), leaseOwner);
+        }
+    }
+
+    private void deleteCrawl(Site site, Crawl crawl) {
+        String crawlId = crawl.getId();
+        boolean latest = site.getCrawlIds() != null && !site.getCrawlIds().isEmpty() && crawlId.equals(site.getCrawlIds().getLast());
         updateCrawlList(site, crawl, crawlId);
+        removeUrlChunks(crawlId);
+        crawlDiffs.delete(crawlId);
+        crawlFingerprintsRepository.deleteById(crawlId);
+        // The child states describe the latest crawl, the next crawl rebuilds them
+        sitemapChildStateRepository.deleteBySiteId(site.getId());
+        if (latest) {
+            // Heads of other crawls are never returned, this only frees the space of the stale head
+            urlSetHeads.invalidate(site.getId());
+        }
         crawlRepository.deleteById(crawlId);
     }
 
@@ -266,7 +843,7 @@ public class CrawlService {
 
     private void authorizeUser(Site site, String userId) {
         if (!site.getUserId().equals(userId)) {
-            throw new UnauthorizedAccessException("Unauthorized to delete crawl for site: " + site.getId());
+            throw new UnauthorizedAccessException("Unauthorized to access crawls of site: " + site.getId());
         }
     }
 
@@ -286,7 +863,8 @@ public class CrawlService {
         }
 
         site.setCrawlIds(crawlIds);
-        siteRepository.save(site);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(site.getId())),
+                new Update().pull("crawlIds", crawlId), Site.class);
     }
 
     private void handleFirstCrawlDeletion(Crawl crawl, List<String> crawlIds) {
@@ -294,11 +872,16 @@ public class CrawlService {
         Crawl nextCrawl = findCrawlById(nextCrawlId);
 
         nextCrawl.setPrevCrawlId(null);
-        List<String> urls = loadUrlsFromChunks(crawl.getUrlChunkIds());
-        applyDiff(urls, nextCrawl.getDiffToPrevCrawl());
-        List<String> urlChunkIds = saveUrlChunks(urls, nextCrawl.getId());
-        nextCrawl.setUrlChunkIds(urlChunkIds);
-        nextCrawl.setDiffToPrevCrawl(new ArrayList<>());
+        if (!nextCrawl.isSnapshot()) {
+            // The next crawl is often the latest one, its URL set is then already known as the head
+            CompactUrlSet urls = urlSetHeads.find(crawl.getSiteId(), nextCrawlId);
+            if (urls == null) {
+                urls = loadUrlsFromChunks(crawl.getUrlChunkIds());
+                urls.apply(crawlDiffs.find(nextCrawl));
+            }
+            storeSnapshot(nextCrawl, urls);
+        }
+        crawlDiffs.replace(nextCrawl, List.of());
         crawlRepository.save(nextCrawl);
     }
 
@@ -309,9 +892,9 @@ public class CrawlService {
         Crawl nextCrawl = findCrawlById(nextCrawlId);
         nextCrawl.setPrevCrawlId(prevCrawlId);
 
-        Map<String, CrawlDiffItem> diffMap = mergeDiffs(crawl.getDiffToPrevCrawl(), nextCrawl.getDiffToPrevCrawl());
+        Map<String, CrawlDiffItem> diffMap = mergeDiffs(crawlDiffs.find(crawl), crawlDiffs.find(nextCrawl));
         List<CrawlDiffItem> combinedDiff = new ArrayList<>(diffMap.values());
-        nextCrawl.setDiffToPrevCrawl(combinedDiff);
+        crawlDiffs.replace(nextCrawl, combinedDiff);
 
         crawlRepository.save(nextCrawl);
     }
@@ -324,11 +907,17 @@ public class CrawlService {
         for (CrawlDiffItem item : nextDiff) {
             if (diffMap.containsKey(item.getUrl())) {
                 CrawlDiffItem existingItem = diffMap.get(item.getUrl());
-                if (!existingItem.getAction().equals(item.getAction())) {
-                    diffMap.remove(item.getUrl()); // Remove contradictory entries
-                } else {
+                if (existingItem.getAction().equals(item.getAction())) {
                     // Combine checked status
                     existingItem.setChecked(existingItem.isChecked() || item.isChecked());
+                } else if ("modified".equals(item.getAction())) {
+                    // A URL added and then modified is still an addition
+                    existingItem.setChecked(existingItem.isChecked() && item.isChecked());
+                } else if ("modified".equals(existingItem.getAction())) {
+                    // A modified URL that was removed afterwards is a removal
+                    diffMap.put(item.getUrl(), item);
+                } else {
+                    diffMap.remove(item.getUrl()); // Remove contradictory entries
                 }
             } else {
                 diffMap.put(item.getUrl(), item);
@@ -338,39 +927,53 @@ public class CrawlService {
     }
 
 
-    public Crawl updateUrlCheckedStatus(String crawlId, UpdateUrlStatusDTO updateUrlStatusDTO) {
+    /**
+     * Sets the checked state of one URL in the diff of the crawl. Returns {@code null} if the diff doesn't contain it.
+     */
+    public CrawlDiffCheckResultDTO updateUrlCheckedStatus(String crawlId, String userId, UpdateUrlStatusDTO updateUrlStatusDTO) {
         log.info("Updating URL checked status for crawlId: {} with DTO: {}", crawlId, updateUrlStatusDTO);
 
-        Crawl crawl = crawlRepository.findById(crawlId)
-                .orElseThrow(() -> new ResourceNotFoundException("Invalid crawl ID: " + crawlId));
-        log.info("Crawl found: {}", crawl);
-
-        boolean updated = false;
-        for (CrawlDiffItem diffItem : crawl.getDiffToPrevCrawl()) {
-            if (diffItem.getUrl().equals(updateUrlStatusDTO.getUrl())) {
-                diffItem.setChecked(updateUrlStatusDTO.isChecked());
-                log.info("Updated URL status in diffToPrevCrawl: {}", diffItem);
-                updated = true;
-                break;
-            }
+        Crawl crawl = findCrawlById(crawlId);
+        authorizeUser(findSiteById(crawl.getSiteId()), userId);
+        CrawlDiffCheckResultDTO result = crawlDiffs.updateChecked(crawl, updateUrlStatusDTO.getUrl(), updateUrlStatusDTO.isChecked());
+        if (result == null) {
+            log.warn("URL not found in diff of crawl {}: {}", crawlId, updateUrlStatusDTO.getUrl());
         }
+        return result;
+    }
 
-        if (updated) {
-            Crawl savedCrawl = crawlRepository.save(crawl);
-            log.info("Crawl updated and saved: {}", savedCrawl);
-            return savedCrawl;
-        } else {
-            log.warn("URL not found in diffToPrevCrawl: {}", updateUrlStatusDTO.getUrl());
-            return null;
-        }
+    public CrawlDiffCheckResultDTO updateUrlCheckedStatus(String crawlId, String userId, BulkUpdateUrlStatusDTO bulkUpdateUrlStatusDTO) {
+        Crawl crawl = findCrawlById(crawlId);
+        authorizeUser(findSiteById(crawl.getSiteId()), userId);
+        CrawlDiffCheckResultDTO result = crawlDiffs.updateChecked(crawl, bulkUpdateUrlStatusDTO.getUrls(),
+                bulkUpdateUrlStatusDTO.getAction(), bulkUpdateUrlStatusDTO.isChecked());
+        log.info("Set checked to {} for {} diff items of crawl {}", bulkUpdateUrlStatusDTO.isChecked(), result.matched(), crawlId);
+        return result;
+    }
+
+    public CrawlDiffPageDTO findDiffPage(String crawlId, String userId, String action, Boolean checked, int page, int size) {
+        Crawl crawl = findCrawlById(crawlId);
+        authorizeUser(findSiteById(crawl.getSiteId()), userId);
+        return crawlDiffs.findPage(crawl, action, checked, page, size);
     }
 
     public void deleteCrawlsBySiteId(String siteId) {
         List<Crawl> crawls = crawlRepository.findBySiteId(siteId);
         for (Crawl crawl : crawls) {
             urlChunkRepository.deleteByCrawlId(crawl.getId());
+            crawlDiffs.delete(crawl.getId());
+            crawlFingerprintsRepository.deleteById(crawl.getId());
             crawlRepository.delete(crawl);
         }
+        sitemapChildStateRepository.deleteBySiteId(siteId);
+        urlSetHeads.invalidate(siteId);
     }
 
+    @FunctionalInterface
+    private interface UrlConsumer {
+        void accept(String url) throws IOException;
+    }
+
+    private record DiffChain(Crawl snapshot, Deque<Crawl> crawlsAfterSnapshot, long diffItemsSinceSnapshot) {
+    }
 }
@@ -0,0 +1,54 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.sites.Site;
+import de.samuelgesang.backend.sites.SiteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks the crawl history of every site after each startup and adds the snapshots that are missing after the
+ * latest one, so long diff chains created before snapshots existed no longer have to be replayed from the first
+ * crawl. Sites whose chain is already covered are only read, sites that are being crawled or changed at the time
+ * are skipped.
+ */
+@Component
+public class CrawlSnapshotMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlSnapshotMigration.class);
+
+    private final SiteRepository siteRepository;
+    private final CrawlService crawlService;
+    private final boolean migrateOnStartup;
+
+    public CrawlSnapshotMigration(SiteRepository siteRepository, CrawlService crawlService,
+                                  @Value("${crawl.snapshot.migrate-on-startup:true}") boolean migrateOnStartup) {
+        this.siteRepository = siteRepository;
+        this.crawlService = crawlService;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (!migrateOnStartup) {
+            return;
+        }
+        Thread.ofVirtual().name("crawl-snapshot-migration").start(this::createMissingSnapshots);
+    }
+
+    private void createMissingSnapshots() {
+        for (Site site : siteRepository.findAll()) {
+            try {
+                if (!crawlService.createMissingSnapshots(site)) {
+                    logger.info("Skipping snapshots for site {} while it is being crawled, retried on the next startup", site.getName());
+                }
+            } catch (Exception e) {
+                logger.error("Failed to create snapshots for site {}: {}", site.getName(), e.getMessage(), e);
+            }
+        }
+        logger.info("Crawl snapshot migration finished");
+    }
+}
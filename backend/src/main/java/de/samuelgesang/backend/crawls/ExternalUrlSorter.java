@@ -0,0 +1,179 @@
+package de.samuelgesang.backend.crawls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts URLs with a bounded amount of memory. URLs are buffered until the buffer exceeds its byte limit, then
+ * the buffer is sorted and written to a temporary file as a run. {@link #sorted()} merges all runs and the
+ * remaining buffer into one distinct stream in the same order as {@link CompactUrlSet}.
+ */
+final class ExternalUrlSorter implements AutoCloseable {
+
+    // Rough per-entry overhead of a byte[] in the buffer list
+    private static final int ENTRY_OVERHEAD = 24;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final long maxBufferBytes;
+    private final Path tempDirectory;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<DataInputStream> openReaders = new ArrayList<>();
+    private List<byte[]> buffer = new ArrayList<>();
+    private long bufferedBytes;
+
+    ExternalUrlSorter(long maxBufferBytes, Path tempDirectory) {
+        this.maxBufferBytes = maxBufferBytes;
+        this.tempDirectory = tempDirectory;
+    }
+
+    void add(String url) throws IOException {
+        byte[] key = url.getBytes(StandardCharsets.UTF_8);
+        buffer.add(key);
+        bufferedBytes += key.length + ENTRY_OVERHEAD;
+        if (bufferedBytes >= maxBufferBytes) {
+            spill();
+        }
+    }
+
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the distinct URLs in order. Reading a run may fail with an {@link UncheckedIOException}.
+     */
+    Iterator<byte[]> sorted() throws IOException {
+        buffer.sort(CompactUrlSet::compare);
+        PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> CompactUrlSet.compare(a.head, b.head));
+        addIfNotEmpty(queue, new Source(buffer.iterator()));
+        for (Path run : runs) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+            openReaders.add(in);
+            addIfNotEmpty(queue, new Source(new RunIterator(in)));
+        }
+
+        return new Iterator<>() {
+            private byte[] previous;
+
+            @Override
+            public boolean hasNext() {
+                skipDuplicates();
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Source source = queue.poll();
+                previous = source.head;
+                addIfNotEmpty(queue, source);
+                return previous;
+            }
+
+            private void skipDuplicates() {
+                while (!queue.isEmpty() && previous != null && CompactUrlSet.compare(queue.peek().head, previous) == 0) {
+                    addIfNotEmpty(queue, queue.poll());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream in : openReaders) {
+            in.close();
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(CompactUrlSet::compare);
+        Path run = Files.createTempFile(tempDirectory, "crawl-urls-", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+            byte[] previous = null;
+            for (byte[] key : buffer) {
+                if (previous == null || CompactUrlSet.compare(previous, key) != 0) {
+                    out.writeInt(key.length);
+                    out.write(key);
+                    previous = key;
+                }
+            }
+            out.writeInt(-1);
+        }
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    private static void addIfNotEmpty(PriorityQueue<Source> queue, Source source) {
+        if (source.advance()) {
+            queue.add(source);
+        }
+    }
+
+    private static final class Source {
+        private final Iterator<byte[]> keys;
+        private byte[] head;
+
+        private Source(Iterator<byte[]> keys) {
+            this.keys = keys;
+        }
+
+        private boolean advance() {
+            head = keys.hasNext() ? keys.next() : null;
+            return head != null;
+        }
+    }
+
+    private static final class RunIterator implements Iterator<byte[]> {
+        private final DataInputStream in;
+        private byte[] next;
+
+        private RunIterator(DataInputStream in) {
+            this.in = in;
+            this.next = read();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            byte[] current = next;
+            next = read();
+            return current;
+        }
+
+        private byte[] read() {
+            try {
+                int length = in.readInt();
+                return length < 0 ? null : in.readNBytes(length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.samuelgesang.backend.crawls;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * URL fingerprints of a crawl or sitemap together with the {@code <lastmod>} of each URL. Both arrays are
+ * ordered by fingerprint. Lastmods are unsigned epoch seconds in an {@code int}, 0 if unknown.
+ */
+final class FingerprintTable {
+
+    private final long[] fingerprints;
+    private final int[] lastModified;
+
+    private FingerprintTable(long[] fingerprints, int[] lastModified) {
+        this.fingerprints = fingerprints;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param urlLastModified lastmod of each URL in epoch seconds, may be {@code null}
+     */
+    static FingerprintTable of(List<String> urls, long[] urlLastModified) {
+        int size = urls.size();
+        long[] hashes = new long[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = UrlFingerprints.hash(urls.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        Integer[] order = new Integer[size];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+
+        Builder builder = new Builder(size);
+        for (int index : order) {
+            long seconds = urlLastModified != null && index < urlLastModified.length ? urlLastModified[index] : 0;
+            builder.add(hashes[index], toUnsignedSeconds(seconds));
+        }
+        return builder.build();
+    }
+
+    static FingerprintTable unpack(byte[] hashes, byte[] lastModified) {
+        long[] fingerprints = UrlFingerprints.unpack(hashes);
+        int[] values = new int[fingerprints.length];
+        if (lastModified != null && lastModified.length == values.length * Integer.BYTES) {
+            ByteBuffer.wrap(lastModified).asIntBuffer().get(values);
+        }
+        return new FingerprintTable(fingerprints, values);
+    }
+
+    /**
+     * Merges tables into one. A URL in several tables keeps its most recent lastmod.
+     */
+    static FingerprintTable union(Collection<FingerprintTable> tables) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, tables.size()), Comparator.comparingLong(Cursor::fingerprint));
+        int expectedSize = 0;
+        for (FingerprintTable table : tables) {
+            if (table.size() > 0) {
+                queue.add(new Cursor(table));
+            }
+            expectedSize += table.size();
+        }
+
+        Builder builder = new Builder(expectedSize);
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            builder.add(cursor.fingerprint(), cursor.table.lastModified[cursor.index]);
+            if (++cursor.index < cursor.table.size()) {
+                queue.add(cursor);
+            }
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return fingerprints.length;
+    }
+
+    long[] fingerprints() {
+        return fingerprints;
+    }
+
+    byte[] packFingerprints() {
+        return UrlFingerprints.pack(fingerprints);
+    }
+
+    byte[] packLastModified() {
+        ByteBuffer buffer = ByteBuffer.allocate(lastModified.length * Integer.BYTES);
+        buffer.asIntBuffer().put(lastModified);
+        return buffer.array();
+    }
+
+    boolean sameAs(FingerprintTable other) {
+        return Arrays.equals(fingerprints, other.fingerprints) && Arrays.equals(lastModified, other.lastModified);
+    }
+
+    /**
+     * Returns the sorted fingerprints that are in both tables and whose lastmod moved forward. URLs without
+     * a known lastmod in either table are never reported.
+     */
+    long[] modifiedSince(FingerprintTable previous) {
+        long[] modified = new long[Math.min(size(), previous.size())];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < fingerprints.length; i++) {
+            while (j < previous.fingerprints.length && previous.fingerprints[j] < fingerprints[i]) {
+                j++;
+            }
+            if (j < previous.fingerprints.length && previous.fingerprints[j] == fingerprints[i]
+                    && lastModified[i] != 0 && previous.lastModified[j] != 0
+                    && Integer.compareUnsigned(lastModified[i], previous.lastModified[j]) > 0) {
+                modified[count++] = fingerprints[i];
+            }
+        }
+        return Arrays.copyOf(modified, count);
+    }
+
+    private static int toUnsignedSeconds(long seconds) {
+        return seconds <= 0 ? 0 : (int) Math.min(seconds, 0xffffffffL);
+    }
+
+    private static final class Cursor {
+        private final FingerprintTable table;
+        private int index;
+
+        private Cursor(FingerprintTable table) {
+            this.table = table;
+        }
+
+        private long fingerprint() {
+            return table.fingerprints[index];
+        }
+    }
+
+    // Collects fingerprints in ascending order, equal fingerprints are merged
+    private static final class Builder {
+        private final long[] fingerprints;
+        private final int[] lastModified;
+        private int count;
+
+        private Builder(int capacity) {
+            this.fingerprints = new long[capacity];
+            this.lastModified = new int[capacity];
+        }
+
+        private void add(long fingerprint, int seconds) {
+            if (count > 0 && fingerprints[count - 1] == fingerprint) {
+                if (Integer.compareUnsigned(seconds, lastModified[count - 1]) > 0) {
+                    lastModified[count - 1] = seconds;
+                }
+                return;
+            }
+            fingerprints[count] = fingerprint;
+            lastModified[count] = seconds;
+            count++;
+        }
+
+        private FingerprintTable build() {
+            return new FingerprintTable(Arrays.copyOf(fingerprints, count), Arrays.copyOf(lastModified, count));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.exceptions.SitemapBudgetExceededException;
+import de.samuelgesang.backend.exceptions.SitemapException;
+import de.samuelgesang.backend.sitemaps.SitemapDocument;
+import de.samuelgesang.backend.sitemaps.SitemapLimits;
+import de.samuelgesang.backend.sitemaps.SitemapService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects all page URLs of one crawl. Children of a sitemap index are fetched concurrently on virtual threads,
+ * while a semaphore limits how many documents are downloaded and parsed at the same time. Every document with page
+ * URLs becomes a {@link ChildSitemap} holding a {@link CompactUrlSet} and a {@link FingerprintTable} with the
+ * lastmods of its URLs, reported in the order of the indexes.
+ * <p>
+ * The {@link CrawlBudget} is enforced while collecting: documents that are too large, too many URLs, too deeply
+ * nested indexes or an expired deadline abort the crawl with a {@link SitemapBudgetExceededException}.
+ * Sitemaps that are referenced more than once are only read the first time.
+ */
+class SitemapUrlCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(SitemapUrlCollector.class);
+
+    private final SitemapService sitemapService;
+    private final CrawlBudget budget;
+    private final Semaphore permits;
+    private final Instant deadline;
+    private final SitemapLimits limits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<String> visitedSitemaps = ConcurrentHashMap.newKeySet();
+    private final AtomicLong urlCount = new AtomicLong();
+    private final AtomicInteger sitemapsFetched = new AtomicInteger();
+    private final AtomicInteger sitemapsFromCache = new AtomicInteger();
+    private final AtomicInteger sitemapsUnchanged = new AtomicInteger();
+    private final Map<String, String> knownDigests;
+
+    /**
+     * @param knownDigests content digests of the sitemaps as of the previous crawl, sitemaps with a matching
+     *                     digest are reported without URLs
+     */
+    SitemapUrlCollector(SitemapService sitemapService, CrawlBudget budget, Map<String, String> knownDigests) {
+        this.sitemapService = sitemapService;
+        this.budget = budget;
+        this.knownDigests = knownDigests;
+        this.permits = new Semaphore(Math.max(1, budget.parallelism()));
+        this.deadline = Instant.now().plus(budget.timeout());
+        this.limits = new SitemapLimits(budget.maxDocumentBytes(), deadline);
+    }
+
+    List<ChildSitemap> collect(String sitemapUrl) throws SitemapException {
+        visitedSitemaps.add(normalize(sitemapUrl));
+        try {
+            return fetchUrlsFromSitemap(sitemapUrl, 0);
+        } catch (SitemapBudgetExceededException e) {
+            String errorMessage = String.format("Crawl aborted after %d sitemaps and %d URLs: %s",
+                    sitemapsFetched.get(), urlCount.get(), e.getMessage());
+            throw new SitemapBudgetExceededException(errorMessage, e);
+        } finally {
+            // Does not wait for fetches that were cancelled at the deadline, they are interrupted and left to finish
+            executor.shutdownNow();
+        }
+    }
+
+    int getSitemapsFetched() {
+        return sitemapsFetched.get();
+    }
+
+    int getSitemapsFromCache() {
+        return sitemapsFromCache.get();
+    }
+
+    int getSitemapsUnchanged() {
+        return sitemapsUnchanged.get();
+    }
+
+    private List<ChildSitemap> fetchUrlsFromSitemap(String sitemapUrl, int depth) throws SitemapException {
+        if (depth > budget.maxDepth()) {
+            throw new SitemapBudgetExceededException("Sitemap indexes are nested deeper than " + budget.maxDepth() + " levels at: " + sitemapUrl);
+        }
+
+        SitemapDocument document;
+        try {
+            logger.info("Fetching content from sitemap URL: {}", sitemapUrl);
+            URL url = new URI(sitemapUrl).toURL();
+            if (!permits.tryAcquire(remainingTime().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw deadlineExceeded();
+            }
+            try {
+                document = sitemapService.loadSitemap(url, limits);
+            } finally {
+                permits.release();
+            }
+        } catch (SitemapBudgetExceededException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SitemapException("Interrupted while fetching sitemap: " + sitemapUrl, e);
+        } catch (Exception e) {
+            if (limits.isExpired()) {
+                throw deadlineExceeded();
+            }
+            String errorMessage = "Error fetching URLs from sitemap: " + sitemapUrl;
+            throw new SitemapException(errorMessage, e);
+        }
+
+        sitemapsFetched.incrementAndGet();
+        if (document.fromCache()) {
+            sitemapsFromCache.incrementAndGet();
+        }
+        if (urlCount.addAndGet(document.urls().size()) > budget.maxUrls()) {
+            throw new SitemapBudgetExceededException("More than " + budget.maxUrls() + " URLs in sitemap");
+        }
+
+        List<ChildSitemap> children = new ArrayList<>();
+        if (!document.urls().isEmpty() || document.sitemaps().isEmpty()) {
+            children.add(toChildSitemap(sitemapUrl, document));
+        }
+        List<String> nestedSitemapUrls = unvisited(document.sitemaps());
+        if (!nestedSitemapUrls.isEmpty()) {
+            children.addAll(fetchNestedSitemapUrls(nestedSitemapUrls, depth + 1));
+        }
+        return children;
+    }
+
+    // Each document is converted to the compact form right away, so only one URL list per fetch is held at a time
+    private ChildSitemap toChildSitemap(String sitemapUrl, SitemapDocument document) {
+        String knownDigest = knownDigests.get(sitemapUrl);
+        if (document.digest() != null && document.digest().equals(knownDigest)) {
+            sitemapsUnchanged.incrementAndGet();
+            return new ChildSitemap(sitemapUrl, document.digest(), null, null);
+        }
+        return new ChildSitemap(sitemapUrl, document.digest(), CompactUrlSet.copyOf(document.urls()),
+                FingerprintTable.of(document.urls(), document.urlLastModified()));
+    }
+
+    private List<String> unvisited(List<String> sitemapUrls) {
+        List<String> unvisited = new ArrayList<>(sitemapUrls.size());
+        for (String sitemapUrl : sitemapUrls) {
+            if (visitedSitemaps.add(normalize(sitemapUrl))) {
+                unvisited.add(sitemapUrl);
+            } else {
+                logger.warn("Skipping sitemap that was already read in this crawl: {}", sitemapUrl);
+            }
+        }
+        return unvisited;
+    }
+
+    private List<ChildSitemap> fetchNestedSitemapUrls(List<String> nestedSitemapUrls, int depth) throws SitemapException {
+        List<Future<List<ChildSitemap>>> futures = new ArrayList<>(nestedSitemapUrls.size());
+        for (String nestedSitemapUrl : nestedSitemapUrls) {
+            futures.add(executor.submit(() -> fetchUrlsFromSitemap(nestedSitemapUrl, depth)));
+        }
+
+        List<ChildSitemap> children = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                // Waiting is bounded as well, a fetch that does not react to the deadline must not hold the crawl
+                children.addAll(futures.get(i).get(remainingTime().toMillis(), TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw deadlineExceeded();
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new SitemapException("Interrupted while fetching nested sitemaps.", e);
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof SitemapBudgetExceededException budgetExceeded) {
+                    throw budgetExceeded;
+                }
+                String errorMessage = "Error fetching nested sitemap: " + nestedSitemapUrls.get(i);
+                throw new SitemapException(errorMessage, e.getCause());
+            }
+        }
+        return children;
+    }
+
+    private Duration remainingTime() {
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    private SitemapBudgetExceededException deadlineExceeded() {
+        return new SitemapBudgetExceededException("Crawl did not finish within " + budget.timeout());
+    }
+
+    private static String normalize(String sitemapUrl) {
+        String normalized;
+        try {
+            normalized = new URI(sitemapUrl.strip()).normalize().toString();
+        } catch (Exception e) {
+            normalized = sitemapUrl.strip();
+        }
+        int fragmentStart = normalized.indexOf('#');
+        return fragmentStart < 0 ? normalized : normalized.substring(0, fragmentStart);
+    }
+}
@@ -0,0 +1,128 @@
+package de.samuelgesang.backend.crawls;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 64-bit URL fingerprints: the first half of MurmurHash3 x64 128 over the UTF-8 bytes of the URL.
+ * Fingerprint sets are sorted {@code long} arrays.
+ */
+final class UrlFingerprints {
+
+    private static final VarHandle LITTLE_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private UrlFingerprints() {
+    }
+
+    // Distinct fingerprints of all sets in sorted order
+    static long[] union(Collection<long[]> sets) {
+        long[] union = new long[sets.stream().mapToInt(set -> set.length).sum()];
+        int offset = 0;
+        for (long[] set : sets) {
+            System.arraycopy(set, 0, union, offset, set.length);
+            offset += set.length;
+        }
+        Arrays.sort(union);
+        int count = 0;
+        for (int i = 0; i < union.length; i++) {
+            if (i == 0 || union[i] != union[i - 1]) {
+                union[count++] = union[i];
+            }
+        }
+        return Arrays.copyOf(union, count);
+    }
+
+    // Fingerprints of a that are not in b, both sorted
+    static long[] difference(long[] a, long[] b) {
+        long[] difference = new long[a.length];
+        int count = 0;
+        int j = 0;
+        for (long fingerprint : a) {
+            while (j < b.length && b[j] < fingerprint) {
+                j++;
+            }
+            if (j == b.length || b[j] != fingerprint) {
+                difference[count++] = fingerprint;
+            }
+        }
+        return Arrays.copyOf(difference, count);
+    }
+
+    static byte[] pack(long[] fingerprints) {
+        ByteBuffer buffer = ByteBuffer.allocate(fingerprints.length * Long.BYTES);
+        buffer.asLongBuffer().put(fingerprints);
+        return buffer.array();
+    }
+
+    static long[] unpack(byte[] packed) {
+        long[] fingerprints = new long[packed.length / Long.BYTES];
+        ByteBuffer.wrap(packed).asLongBuffer().get(fingerprints);
+        return fingerprints;
+    }
+
+    static long hash(byte[] data) {
+        int length = data.length;
+        int blocks = length / 16;
+        long h1 = 0;
+        long h2 = 0;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = (long) LITTLE_ENDIAN_LONG.get(data, i * 16);
+            long k2 = (long) LITTLE_ENDIAN_LONG.get(data, i * 16 + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int offset = blocks * 16;
+        int tail = length - offset;
+        if (tail > 8) {
+            long k2 = 0;
+            for (int i = tail - 1; i >= 8; i--) {
+                k2 ^= (long) (data[offset + i] & 0xff) << ((i - 8) * 8);
+            }
+            h2 ^= mixK2(k2);
+        }
+        if (tail > 0) {
+            long k1 = 0;
+            for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+                k1 ^= (long) (data[offset + i] & 0xff) << (i * 8);
+            }
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        return h1 + h2;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
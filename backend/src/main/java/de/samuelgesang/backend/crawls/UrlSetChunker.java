@@ -0,0 +1,55 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits a URL set into chunks whose boundaries depend only on the URLs around them: once a chunk holds the
+ * target number of characters, it ends after the next URL whose fingerprint is a multiple of
+ * {@value #BOUNDARY_DIVISOR}. Adding or removing a few URLs therefore only changes the chunks that contain them,
+ * the following chunks keep their boundaries and content ids.
+ */
+final class UrlSetChunker {
+
+    private static final int BOUNDARY_DIVISOR = 64;
+
+    private final long targetChars;
+
+    UrlSetChunker(long targetChars) {
+        this.targetChars = Math.max(1, targetChars);
+    }
+
+    void split(CompactUrlSet urls, ChunkConsumer consumer) {
+        List<String> chunk = new ArrayList<>();
+        long chunkChars = 0;
+        long contentId = 0;
+        Iterator<byte[]> keys = urls.keys();
+        while (keys.hasNext()) {
+            byte[] key = keys.next();
+            long fingerprint = UrlFingerprints.hash(key);
+            chunk.add(CompactUrlSet.decode(key));
+            chunkChars += key.length;
+            contentId = contentId * 0x9e3779b97f4a7c15L + fingerprint;
+            // A chunk without a boundary URL is cut at twice the target, so chunk sizes stay bounded
+            boolean boundary = chunkChars >= targetChars && Long.remainderUnsigned(fingerprint, BOUNDARY_DIVISOR) == 0;
+            if (boundary || chunkChars >= 2 * targetChars) {
+                consumer.accept(chunk, contentId);
+                chunk = new ArrayList<>();
+                chunkChars = 0;
+                contentId = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            consumer.accept(chunk, contentId);
+        }
+    }
+
+    @FunctionalInterface
+    interface ChunkConsumer {
+        /**
+         * @param contentId hash over the URLs of the chunk, equal chunks have equal ids
+         */
+        void accept(List<String> urls, long contentId);
+    }
+}
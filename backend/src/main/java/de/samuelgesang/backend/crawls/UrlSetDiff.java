@@ -0,0 +1,95 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Diffs two sorted URL sets in a single merge walk. The result lists the added URLs in order, followed by the
+ * removed URLs in order.
+ * <p>
+ * Large sets can be split into key ranges at the same URLs in both sets. The ranges are diffed on the common
+ * fork-join pool and joined in range order, so the result is identical to the sequential diff.
+ */
+final class UrlSetDiff {
+
+    private UrlSetDiff() {
+    }
+
+    static List<CrawlDiffItem> diff(CompactUrlSet current, CompactUrlSet previous, int partitions) {
+        if (partitions <= 1) {
+            return diff(current.keys(), previous.keys());
+        }
+
+        // Split keys of the larger set give balanced ranges as long as most URLs are in both sets
+        List<byte[]> splitKeys = (current.size() >= previous.size() ? current : previous).splitKeys(partitions);
+        List<RangeDiff> ranges = new ArrayList<>(splitKeys.size() + 1);
+        for (int i = 0; i <= splitKeys.size(); i++) {
+            byte[] from = i == 0 ? null : splitKeys.get(i - 1);
+            byte[] to = i == splitKeys.size() ? null : splitKeys.get(i);
+            ranges.add(new RangeDiff(current, previous, from, to));
+        }
+        ForkJoinTask.invokeAll(ranges);
+
+        int size = ranges.stream().mapToInt(range -> range.added.size() + range.removed.size()).sum();
+        List<CrawlDiffItem> diff = new ArrayList<>(size);
+        ranges.forEach(range -> diff.addAll(range.added));
+        ranges.forEach(range -> diff.addAll(range.removed));
+        return diff;
+    }
+
+    static List<CrawlDiffItem> diff(Iterator<byte[]> current, Iterator<byte[]> previous) {
+        List<CrawlDiffItem> added = new ArrayList<>();
+        List<CrawlDiffItem> removed = new ArrayList<>();
+        merge(current, previous, added, removed);
+
+        List<CrawlDiffItem> diff = new ArrayList<>(added.size() + removed.size());
+        diff.addAll(added);
+        diff.addAll(removed);
+        return diff;
+    }
+
+    private static void merge(Iterator<byte[]> current, Iterator<byte[]> previous,
+                              List<CrawlDiffItem> added, List<CrawlDiffItem> removed) {
+        byte[] currentUrl = current.hasNext() ? current.next() : null;
+        byte[] previousUrl = previous.hasNext() ? previous.next() : null;
+        while (currentUrl != null || previousUrl != null) {
+            int cmp = currentUrl == null ? 1 : previousUrl == null ? -1 : CompactUrlSet.compare(currentUrl, previousUrl);
+            if (cmp < 0) {
+                // URL added in current crawl
+                added.add(CrawlDiffItem.of("add", CompactUrlSet.decode(currentUrl)));
+                currentUrl = current.hasNext() ? current.next() : null;
+            } else if (cmp > 0) {
+                // URL removed in current crawl
+                removed.add(CrawlDiffItem.of("remove", CompactUrlSet.decode(previousUrl)));
+                previousUrl = previous.hasNext() ? previous.next() : null;
+            } else {
+                currentUrl = current.hasNext() ? current.next() : null;
+                previousUrl = previous.hasNext() ? previous.next() : null;
+            }
+        }
+    }
+
+    private static final class RangeDiff extends RecursiveAction {
+        private final CompactUrlSet current;
+        private final CompactUrlSet previous;
+        private final byte[] from;
+        private final byte[] to;
+        private final List<CrawlDiffItem> added = new ArrayList<>();
+        private final List<CrawlDiffItem> removed = new ArrayList<>();
+
+        private RangeDiff(CompactUrlSet current, CompactUrlSet previous, byte[] from, byte[] to) {
+            this.current = current;
+            this.previous = previous;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            merge(current.keys(from, to), previous.keys(from, to), added, removed);
+        }
+    }
+}
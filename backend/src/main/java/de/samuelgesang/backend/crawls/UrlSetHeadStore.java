@@ -0,0 +1,180 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.cache.SizeBoundedCache;
+import de.samuelgesang.backend.url_chunk.UrlChunkCodec;
+import de.samuelgesang.backend.url_set_head.UrlSetHead;
+import de.samuelgesang.backend.url_set_head.UrlSetHeadChunk;
+import de.samuelgesang.backend.url_set_head.UrlSetHeadChunkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the full URL set of the latest crawl of each site, the head, so a new crawl can be diffed without
+ * replaying the diff chain. Recently used heads are held in memory, every head is also persisted in Mongo as
+ * compressed chunks plus a manifest listing them. Chunk boundaries only depend on the URLs around them, so a
+ * crawl with few changes shares most chunks with the previous head and only writes the ones that changed.
+ * <p>
+ * A head is bound to the crawl it describes and is never returned for any other crawl. Sets with
+ * crawl.diff.external-threshold URLs or more are not kept, crawls of that size are diffed externally.
+ */
+@Component
+public class UrlSetHeadStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlSetHeadStore.class);
+    // Chunks are cut by characters rather than by compressed size, so equal content keeps equal boundaries
+    private static final int EXPECTED_COMPRESSION_RATIO = 8;
+    private static final int WRITE_BATCH_SIZE = 100;
+
+    private final UrlSetHeadChunkRepository urlSetHeadChunkRepository;
+    private final MongoTemplate mongoTemplate;
+    private final SizeBoundedCache<String, Head> cache;
+    private final UrlSetChunker chunker;
+    private final long maxUrls;
+
+    public UrlSetHeadStore(UrlSetHeadChunkRepository urlSetHeadChunkRepository,
+                           MongoTemplate mongoTemplate,
+                           @Value("${crawl.head.cache-size:256MB}") DataSize cacheSize,
+                           @Value("${crawl.chunks.target-size:64KB}") DataSize chunkTargetSize,
+                           @Value("${crawl.diff.external-threshold:1000000}") long maxUrls) {
+        this.urlSetHeadChunkRepository = urlSetHeadChunkRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.cache = new SizeBoundedCache<>(cacheSize.toBytes(), head -> head.urls().estimatedSizeInBytes());
+        this.chunker = new UrlSetChunker(chunkTargetSize.toBytes() * EXPECTED_COMPRESSION_RATIO);
+        this.maxUrls = maxUrls;
+    }
+
+    /**
+     * Returns the URL set of the crawl if it is the head of the site, otherwise {@code null}.
+     * The set is shared with the cache and must not be modified.
+     */
+    CompactUrlSet find(String siteId, String crawlId) {
+        Head cached = cache.get(siteId);
+        if (cached != null && cached.crawlId().equals(crawlId)) {
+            return cached.urls();
+        }
+
+        UrlSetHead head = mongoTemplate.findById(siteId, UrlSetHead.class);
+        if (head == null || !crawlId.equals(head.getCrawlId())) {
+            return null;
+        }
+        // Read one chunk at a time from the cursor, so the URLs are never all held as strings
+        CompactUrlSet urls = new CompactUrlSet();
+        int chunkCount = 0;
+        Query query = Query.query(Criteria.where("_id").in(head.getChunkIds()));
+        try (Stream<UrlSetHeadChunk> chunks = mongoTemplate.stream(query, UrlSetHeadChunk.class)) {
+            Iterator<UrlSetHeadChunk> iterator = chunks.iterator();
+            while (iterator.hasNext()) {
+                urls.addAll(UrlChunkCodec.decode(iterator.next().getData()));
+                chunkCount++;
+            }
+        }
+        if (chunkCount != head.getChunkIds().size()) {
+            logger.warn("URL set head of site {} is missing {} chunks", siteId, head.getChunkIds().size() - chunkCount);
+            return null;
+        }
+        urls.compact();
+        cache.put(siteId, new Head(crawlId, urls));
+        return urls;
+    }
+
+    /**
+     * Makes the URL set the head of the site. The set must not be modified afterwards. If it is unchanged
+     * since the previous head, the persisted head is only moved to the new crawl instead of being rewritten.
+     */
+    void save(String siteId, String previousCrawlId, String crawlId, CompactUrlSet urls, boolean unchanged) {
+        if (urls.size() >= maxUrls) {
+            logger.info("Not keeping a URL set head for site {} with {} URLs", siteId, urls.size());
+            invalidate(siteId);
+            return;
+        }
+        cache.put(siteId, new Head(crawlId, urls));
+        if (unchanged && previousCrawlId != null) {
+            long moved = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(siteId).and("crawlId").is(previousCrawlId)),
+                    new Update().set("crawlId", crawlId), UrlSetHead.class).getModifiedCount();
+            if (moved > 0) {
+                return;
+            }
+        }
+
+        Set<String> storedChunkIds = findChunkIds(siteId);
+        List<String> chunkIds = new ArrayList<>();
+        List<UrlSetHeadChunk> batch = new ArrayList<>();
+        chunker.split(urls, (chunkUrls, contentId) -> {
+            String chunkId = siteId + ":" + Long.toHexString(contentId) + ":" + chunkUrls.size();
+            chunkIds.add(chunkId);
+            if (storedChunkIds.contains(chunkId)) {
+                return;
+            }
+            batch.add(createChunk(chunkId, siteId, chunkUrls));
+            if (batch.size() >= WRITE_BATCH_SIZE) {
+                insertChunks(batch);
+                batch.clear();
+            }
+        });
+        insertChunks(batch);
+
+        // The manifest is switched only after all its chunks exist, chunks of the previous head are removed last
+        UrlSetHead head = new UrlSetHead();
+        head.setSiteId(siteId);
+        head.setCrawlId(crawlId);
+        head.setUrlCount(urls.size());
+        head.setChunkIds(chunkIds);
+        mongoTemplate.save(head);
+        mongoTemplate.remove(Query.query(Criteria.where("siteId").is(siteId).and("_id").nin(chunkIds)), UrlSetHeadChunk.class);
+        long written = chunkIds.stream().filter(chunkId -> !storedChunkIds.contains(chunkId)).count();
+        logger.info("Stored URL set head of site {} for crawl {}, wrote {} of {} chunks", siteId, crawlId, written, chunkIds.size());
+    }
+
+    void invalidate(String siteId) {
+        cache.invalidate(siteId);
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(siteId)), UrlSetHead.class);
+        urlSetHeadChunkRepository.deleteBySiteId(siteId);
+    }
+
+    private Set<String> findChunkIds(String siteId) {
+        Query query = Query.query(Criteria.where("siteId").is(siteId));
+        query.fields().include("_id");
+        Set<String> chunkIds = new HashSet<>();
+        for (UrlSetHeadChunk chunk : mongoTemplate.find(query, UrlSetHeadChunk.class)) {
+            chunkIds.add(chunk.getId());
+        }
+        return chunkIds;
+    }
+
+    private UrlSetHeadChunk createChunk(String chunkId, String siteId, List<String> urls) {
+        UrlSetHeadChunk chunk = new UrlSetHeadChunk();
+        chunk.setId(chunkId);
+        chunk.setSiteId(siteId);
+        chunk.setCount(urls.size());
+        chunk.setData(UrlChunkCodec.encode(urls));
+        return chunk;
+    }
+
+    private void insertChunks(List<UrlSetHeadChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UrlSetHeadChunk.class)
+                .insert(chunks)
+                .execute();
+    }
+
+    private record Head(String crawlId, CompactUrlSet urls) {
+    }
+}
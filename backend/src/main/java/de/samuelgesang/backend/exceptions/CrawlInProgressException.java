@@ -0,0 +1,7 @@
+package de.samuelgesang.backend.exceptions;
+
+public class CrawlInProgressException extends RuntimeException {
+    public CrawlInProgressException(String message) {
+        super(message);
+    }
+}
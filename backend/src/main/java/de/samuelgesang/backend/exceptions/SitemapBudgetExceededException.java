@@ -0,0 +1,12 @@
+package de.samuelgesang.backend.exceptions;
+
+public class SitemapBudgetExceededException extends SitemapException {
+
+    public SitemapBudgetExceededException(String message) {
+        super(message);
+    }
+
+    public SitemapBudgetExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
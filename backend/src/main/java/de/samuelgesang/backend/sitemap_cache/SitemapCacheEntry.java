@@ -0,0 +1,24 @@
+package de.samuelgesang.backend.sitemap_cache;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+@Setter
+@Getter
+@Document(collection = "sitemap_cache")
+public class SitemapCacheEntry {
+    @Id
+    private String url;
+    private String etag;
+    private String lastModified;
+    private String digest;
+    private String fetchedAt;
+    private List<String> urls;
+    // <lastmod> of each URL in epoch seconds, 0 if unknown
+    private long[] urlLastModified;
+    private List<String> sitemaps;
+}
@@ -0,0 +1,6 @@
+package de.samuelgesang.backend.sitemap_cache;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface SitemapCacheRepository extends MongoRepository<SitemapCacheEntry, String> {
+}
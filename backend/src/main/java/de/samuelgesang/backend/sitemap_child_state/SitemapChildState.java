@@ -0,0 +1,32 @@
+package de.samuelgesang.backend.sitemap_child_state;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * State of one sitemap with page URLs as of the latest crawl of a site. Used to skip sitemaps
+ * that did not change since then.
+ */
+@Setter
+@Getter
+@Document(collection = "sitemap_child_states")
+public class SitemapChildState {
+    // siteId and sitemap URL, so a new crawl replaces the state of the previous one
+    @Id
+    private String id;
+    private String siteId;
+    private String sitemapUrl;
+    private String digest;
+    private String crawlId;
+    private int count;
+    // Sorted 64-bit hashes of the page URLs, 8 bytes each, big-endian
+    private byte[] hashes;
+    // Lastmod of each hash in unsigned epoch seconds, 4 bytes each, 0 if unknown
+    private byte[] lastModified;
+
+    public static String idFor(String siteId, String sitemapUrl) {
+        return siteId + " " + sitemapUrl;
+    }
+}
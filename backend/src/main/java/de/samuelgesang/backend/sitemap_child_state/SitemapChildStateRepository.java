@@ -0,0 +1,11 @@
+package de.samuelgesang.backend.sitemap_child_state;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface SitemapChildStateRepository extends MongoRepository<SitemapChildState, String> {
+    List<SitemapChildState> findBySiteId(String siteId);
+
+    void deleteBySiteId(String siteId);
+}
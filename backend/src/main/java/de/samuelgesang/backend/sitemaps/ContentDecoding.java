@@ -0,0 +1,66 @@
+package de.samuelgesang.backend.sitemaps;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Wraps a response body in streaming decoders. Decoding is driven by the {@code Content-Encoding} header,
+ * and gzip payloads that are not announced there (e.g. {@code sitemap.xml.gz} files) are recognised by their magic bytes.
+ */
+final class ContentDecoding {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentDecoding() {
+    }
+
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        InputStream in = body;
+        if (contentEncoding != null) {
+            String[] encodings = contentEncoding.split(",");
+            // Encodings are listed in the order they were applied, so they are undone from last to first
+            for (int i = encodings.length - 1; i >= 0; i--) {
+                in = decodeSingle(in, encodings[i].trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return unwrapGzipFile(in);
+    }
+
+    private static InputStream decodeSingle(InputStream in, String encoding) throws IOException {
+        return switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate" -> inflate(new BufferedInputStream(in, BUFFER_SIZE));
+            case "", "identity" -> in;
+            default -> throw new IOException("Unsupported Content-Encoding: " + encoding);
+        };
+    }
+
+    // "deflate" is specified as zlib-wrapped, but some servers send a raw deflate stream
+    private static InputStream inflate(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        boolean zlibWrapped = (cmf & 0x0f) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(in, new Inflater(!zlibWrapped), BUFFER_SIZE);
+    }
+
+    private static InputStream unwrapGzipFile(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return buffered;
+    }
+}
@@ -0,0 +1,278 @@
+package de.samuelgesang.backend.sitemaps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps outbound requests polite per host: a token bucket limits the request rate, a semaphore limits
+ * the number of open requests, and a {@code Retry-After} answer pauses all requests to that host.
+ * Defaults apply to every host and can be overridden per host with
+ * {@code sitemap.politeness.hosts=cdn.example.com=1/2,other.org=5/8} (requests per second / max in flight).
+ * The state of a host is dropped once no request was made to it for {@code sitemap.politeness.idle-ttl}, or
+ * earlier when more than {@code sitemap.politeness.max-hosts} hosts are tracked. A host with a request in flight,
+ * a request waiting for a slot or an active pause is never dropped, so its limits always hold.
+ */
+@Component
+public class HostRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostRateLimiter.class);
+
+    private final double defaultRequestsPerSecond;
+    private final int defaultMaxInFlight;
+    private final int burst;
+    private final Duration maxRetryAfter;
+    private final Map<String, HostLimits> hostLimits;
+    // Least recently used first, guarded by its own monitor
+    private final LinkedHashMap<String, HostState> hosts = new LinkedHashMap<>(16, 0.75f, true);
+    private final long idleTtlNanos;
+    private final int maxHosts;
+    private long lastSweep = System.nanoTime();
+
+    public HostRateLimiter(@Value("${sitemap.politeness.requests-per-second:2}") double defaultRequestsPerSecond,
+                           @Value("${sitemap.politeness.max-in-flight:4}") int defaultMaxInFlight,
+                           @Value("${sitemap.politeness.burst:4}") int burst,
+                           @Value("${sitemap.politeness.max-retry-after:120s}") Duration maxRetryAfter,
+                           @Value("${sitemap.politeness.hosts:}") String hostOverrides,
+                           @Value("${sitemap.politeness.idle-ttl:10m}") Duration idleTtl,
+                           @Value("${sitemap.politeness.max-hosts:10000}") int maxHosts) {
+        this.defaultRequestsPerSecond = defaultRequestsPerSecond;
+        this.defaultMaxInFlight = defaultMaxInFlight;
+        this.burst = Math.max(1, burst);
+        this.maxRetryAfter = maxRetryAfter;
+        this.hostLimits = parseHostOverrides(hostOverrides);
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.maxHosts = maxHosts;
+    }
+
+    public Permit acquire(String host) throws InterruptedException {
+        return acquire(host, null);
+    }
+
+    /**
+     * Waits for a free slot and a token of the host. Returns {@code null} if they are not available before the
+     * deadline, a {@code null} deadline waits as long as needed.
+     */
+    public Permit acquire(String host, Instant deadline) throws InterruptedException {
+        HostState state = retain(host);
+        boolean acquired = false;
+        try {
+            if (state.inFlight.tryAcquire(nanosUntil(deadline), TimeUnit.NANOSECONDS)) {
+                try {
+                    acquired = state.awaitToken(deadline);
+                } finally {
+                    if (!acquired) {
+                        state.inFlight.release();
+                    }
+                }
+            }
+        } finally {
+            if (!acquired) {
+                release(state);
+            }
+        }
+        if (!acquired) {
+            return null;
+        }
+        AtomicBoolean closed = new AtomicBoolean();
+        return () -> {
+            if (closed.compareAndSet(false, true)) {
+                state.inFlight.release();
+                release(state);
+            }
+        };
+    }
+
+    /**
+     * Pauses all requests to the host. Returns the applied delay, or {@code null} if the server asked
+     * for a longer pause than {@code sitemap.politeness.max-retry-after} and the request should not be retried.
+     */
+    public Duration backOff(String host, String retryAfter) {
+        Duration delay = parseRetryAfter(retryAfter);
+        boolean tooLong = delay.compareTo(maxRetryAfter) > 0;
+        Duration applied = tooLong ? maxRetryAfter : delay;
+        HostState state = retain(host);
+        try {
+            state.pauseFor(applied);
+        } finally {
+            release(state);
+        }
+        logger.warn("Host {} asked to back off, pausing requests for {}", host, applied);
+        return tooLong ? null : applied;
+    }
+
+    public static boolean isBackOffStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    // Every caller must hand the state back with release, a host in use is never evicted
+    private HostState retain(String host) {
+        String key = host == null ? "" : host.toLowerCase(Locale.ROOT);
+        synchronized (hosts) {
+            long now = System.nanoTime();
+            HostState state = hosts.get(key);
+            if (state == null) {
+                evictIdleHosts(now);
+                HostLimits limits = hostLimits.getOrDefault(key, new HostLimits(defaultRequestsPerSecond, defaultMaxInFlight));
+                state = new HostState(limits.requestsPerSecond(), burst, limits.maxInFlight());
+                hosts.put(key, state);
+            }
+            state.users++;
+            state.lastUsed = now;
+            return state;
+        }
+    }
+
+    private void release(HostState state) {
+        synchronized (hosts) {
+            state.users--;
+            state.lastUsed = System.nanoTime();
+        }
+    }
+
+    // Sweeps at most once per idle TTL, unless the limit is reached, and then drops the least recently used hosts
+    private void evictIdleHosts(long now) {
+        if (hosts.size() < maxHosts && now - lastSweep < idleTtlNanos) {
+            return;
+        }
+        lastSweep = now;
+        Iterator<HostState> iterator = hosts.values().iterator();
+        while (iterator.hasNext()) {
+            HostState state = iterator.next();
+            if (state.isUnused(now) && (hosts.size() >= maxHosts || now - state.lastUsed >= idleTtlNanos)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long nanosUntil(Instant deadline) {
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? 0 : remaining.toNanos();
+    }
+
+    private Duration parseRetryAfter(String retryAfter) {
+        Duration fallback = Duration.ofSeconds(5);
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return fallback;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            try {
+                Instant until = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Duration delay = Duration.between(Instant.now(), until);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ex) {
+                return fallback;
+            }
+        }
+    }
+
+    private static Map<String, HostLimits> parseHostOverrides(String hostOverrides) {
+        Map<String, HostLimits> limits = new HashMap<>();
+        if (hostOverrides == null || hostOverrides.isBlank()) {
+            return limits;
+        }
+        for (String entry : hostOverrides.split(",")) {
+            String[] hostAndLimits = entry.trim().split("=", 2);
+            if (hostAndLimits.length != 2) {
+                throw new IllegalArgumentException("Invalid sitemap.politeness.hosts entry: " + entry);
+            }
+            String[] values = hostAndLimits[1].split("/", 2);
+            double requestsPerSecond = Double.parseDouble(values[0].trim());
+            int maxInFlight = values.length > 1 ? Integer.parseInt(values[1].trim()) : 1;
+            limits.put(hostAndLimits[0].trim().toLowerCase(Locale.ROOT), new HostLimits(requestsPerSecond, maxInFlight));
+        }
+        return limits;
+    }
+
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private record HostLimits(double requestsPerSecond, int maxInFlight) {
+    }
+
+    private static final class HostState {
+        private final double requestsPerSecond;
+        private final int burst;
+        private final Semaphore inFlight;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil = lastRefill;
+        // Guarded by the hosts map
+        private int users;
+        private long lastUsed;
+
+        private HostState(double requestsPerSecond, int burst, int maxInFlight) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+            this.inFlight = new Semaphore(Math.max(1, maxInFlight), true);
+            this.tokens = burst;
+        }
+
+        // Returns false without waiting if the next token is not available before the deadline
+        private boolean awaitToken(Instant deadline) throws InterruptedException {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    if (requestsPerSecond > 0) {
+                        tokens = Math.min(burst, tokens + (now - lastRefill) * requestsPerSecond / 1_000_000_000d);
+                    }
+                    lastRefill = now;
+
+                    if (now - pausedUntil < 0) {
+                        waitNanos = pausedUntil - now;
+                    } else if (requestsPerSecond <= 0 || tokens >= 1) {
+                        tokens -= 1;
+                        return true;
+                    } else {
+                        waitNanos = (long) ((1 - tokens) * 1_000_000_000d / requestsPerSecond);
+                    }
+                }
+                if (waitNanos > nanosUntil(deadline)) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(1, waitNanos));
+            }
+        }
+
+        private boolean isUnused(long now) {
+            if (users > 0) {
+                return false;
+            }
+            synchronized (this) {
+                return now - pausedUntil >= 0;
+            }
+        }
+
+        private synchronized void pauseFor(Duration delay) {
+            long until = System.nanoTime() + delay.toNanos();
+            if (until - pausedUntil > 0) {
+                pausedUntil = until;
+            }
+        }
+    }
+}
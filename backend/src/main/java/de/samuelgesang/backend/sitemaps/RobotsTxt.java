@@ -0,0 +1,31 @@
+package de.samuelgesang.backend.sitemaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+final class RobotsTxt {
+
+    private static final String SITEMAP_DIRECTIVE = "sitemap:";
+
+    private RobotsTxt() {
+    }
+
+    static List<String> parseSitemapDirectives(InputStream body, int maxBytes) throws IOException {
+        String text = new String(body.readNBytes(maxBytes), StandardCharsets.UTF_8);
+        List<String> sitemapUrls = new ArrayList<>();
+        for (String line : text.split("\\R")) {
+            String directive = line.strip();
+            if (directive.toLowerCase(Locale.ROOT).startsWith(SITEMAP_DIRECTIVE)) {
+                String sitemapUrl = directive.substring(SITEMAP_DIRECTIVE.length()).strip();
+                if (sitemapUrl.startsWith("http://") || sitemapUrl.startsWith("https://")) {
+                    sitemapUrls.add(sitemapUrl);
+                }
+            }
+        }
+        return sitemapUrls;
+    }
+}
@@ -0,0 +1,12 @@
+package de.samuelgesang.backend.sitemaps;
+
+import java.util.List;
+
+/**
+ * Page URLs and child sitemap URLs of a single sitemap document. {@code urlLastModified} holds the
+ * {@code <lastmod>} of each URL in epoch seconds, or {@link SitemapListener#UNKNOWN_LAST_MODIFIED}.
+ * {@code fromCache} is set when the server confirmed the cached copy is still current.
+ * {@code digest} is the SHA-256 of the document content, or {@code null} if it is not known.
+ */
+public record SitemapDocument(List<String> urls, long[] urlLastModified, List<String> sitemaps, boolean fromCache, String digest) {
+}
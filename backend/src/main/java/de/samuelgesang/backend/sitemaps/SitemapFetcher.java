@@ -0,0 +1,176 @@
+package de.samuelgesang.backend.sitemaps;
+
+import de.samuelgesang.backend.exceptions.SitemapBudgetExceededException;
+import de.samuelgesang.backend.exceptions.SitemapException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches sitemaps, robots.txt files and other documents of the crawled sites, politely per host.
+ * {@code sitemap.http.read-timeout} bounds the wait for the response headers and, separately, every pause
+ * in which no bytes of the body arrive.
+ */
+@Component
+public class SitemapFetcher {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final HttpClient httpClient;
+    private final HostRateLimiter hostRateLimiter;
+    private final Duration readTimeout;
+
+    public SitemapFetcher(HttpClient sitemapHttpClient,
+                          HostRateLimiter hostRateLimiter,
+                          @Value("${sitemap.http.read-timeout:30s}") Duration readTimeout) {
+        this.httpClient = sitemapHttpClient;
+        this.hostRateLimiter = hostRateLimiter;
+        this.readTimeout = readTimeout;
+    }
+
+    public <T> T fetch(URI uri, BodyReader<T> bodyReader) throws SitemapException {
+        return fetch(uri, null, null, SitemapLimits.NONE, bodyReader).body();
+    }
+
+    public <T> SitemapResponse<T> fetch(URI uri, String etag, String lastModified, SitemapLimits limits,
+                                        BodyReader<T> bodyReader) throws SitemapException {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+                .timeout(limits.timeout(readTimeout))
+                .header("Accept", "application/xml")
+                .header("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING)
+                .GET();
+        if (etag != null) {
+            requestBuilder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            requestBuilder.header("If-Modified-Since", lastModified);
+        }
+
+        HttpRequest request = requestBuilder.build();
+        String host = uri.getHost();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try (HostRateLimiter.Permit permit = hostRateLimiter.acquire(host, limits.deadline())) {
+                    if (permit == null) {
+                        throw new SitemapLimits.ExceededException("Crawl deadline reached while waiting to fetch from host " + host);
+                    }
+                    HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    // Closing the body before it is fully read releases the connection without downloading the rest
+                    try (InputStream body = response.body()) {
+                        int responseCode = response.statusCode();
+                        if (HostRateLimiter.isBackOffStatus(responseCode)) {
+                            Duration delay = hostRateLimiter.backOff(host, response.headers().firstValue("Retry-After").orElse(null));
+                            if (delay != null && attempt < MAX_ATTEMPTS) {
+                                continue;
+                            }
+                        }
+                        if (responseCode == 304 && (etag != null || lastModified != null)) {
+                            return SitemapResponse.notModified(etag, lastModified);
+                        }
+                        if (responseCode != 200) {
+                            throw new SitemapException("Failed to fetch content from URL: " + uri + ". Response code: " + responseCode);
+                        }
+
+                        String contentEncoding = response.headers().firstValue("Content-Encoding").orElse(null);
+                        T result = readBody(body, limits, in -> bodyReader.read(limits.limit(ContentDecoding.decode(in, contentEncoding))));
+                        return new SitemapResponse<>(false, result,
+                                response.headers().firstValue("ETag").orElse(null),
+                                response.headers().firstValue("Last-Modified").orElse(null));
+                    }
+                }
+            }
+        } catch (SitemapLimits.ExceededException e) {
+            throw new SitemapBudgetExceededException(e.getMessage() + ": " + uri, e);
+        } catch (IOException e) {
+            throw new SitemapException("Error fetching content from URL: " + uri, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SitemapException("Interrupted while fetching content from URL: " + uri, e);
+        }
+    }
+
+    // HttpRequest.timeout only covers the response headers, so the body is read on its own thread while this one
+    // watches it. Once no bytes arrived for the read timeout or the deadline of the limits passed, the reader is
+    // interrupted, which fails its blocked read.
+    private <T> T readBody(InputStream body, SitemapLimits limits, BodyReader<T> bodyReader)
+            throws IOException, SitemapException, InterruptedException {
+        ProgressInputStream in = new ProgressInputStream(body);
+        FutureTask<T> task = new FutureTask<>(() -> bodyReader.read(in));
+        Thread.ofVirtual().name("sitemap-body-reader").start(task);
+        try {
+            while (true) {
+                if (limits.isExpired()) {
+                    throw new SitemapLimits.ExceededException("Crawl deadline reached while reading sitemap document");
+                }
+                long waitNanos = readTimeout.toNanos() - (System.nanoTime() - in.lastProgress);
+                if (waitNanos <= 0) {
+                    throw new HttpTimeoutException("No data received for " + readTimeout);
+                }
+                waitNanos = Math.min(waitNanos, limits.timeout(readTimeout).toNanos());
+                try {
+                    return task.get(waitNanos, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // The reader may still be making progress, check again
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof SitemapException sitemapException) {
+                throw sitemapException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        } finally {
+            task.cancel(true);
+        }
+    }
+
+    private static final class ProgressInputStream extends FilterInputStream {
+
+        private volatile long lastProgress = System.nanoTime();
+
+        private ProgressInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            lastProgress = System.nanoTime();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            lastProgress = System.nanoTime();
+            return n;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException, SitemapException;
+    }
+}
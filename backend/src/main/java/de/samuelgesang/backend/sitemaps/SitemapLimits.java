@@ -0,0 +1,86 @@
+package de.samuelgesang.backend.sitemaps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Limits for reading a single sitemap document: the maximum number of decoded bytes and a deadline
+ * after which reading is aborted.
+ */
+public record SitemapLimits(long maxBytes, Instant deadline) {
+
+    public static final SitemapLimits NONE = new SitemapLimits(Long.MAX_VALUE, null);
+
+    public boolean isExpired() {
+        return deadline != null && !Instant.now().isBefore(deadline);
+    }
+
+    Duration timeout(Duration timeout) {
+        if (deadline == null) {
+            return timeout;
+        }
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        if (remaining.compareTo(Duration.ofMillis(1)) < 0) {
+            return Duration.ofMillis(1);
+        }
+        return remaining.compareTo(timeout) < 0 ? remaining : timeout;
+    }
+
+    InputStream limit(InputStream in) {
+        return this == NONE ? in : new LimitedInputStream(in, this);
+    }
+
+    static class ExceededException extends IOException {
+        ExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final SitemapLimits limits;
+        private long bytesRead;
+
+        private LimitedInputStream(InputStream in, SitemapLimits limits) {
+            super(in);
+            this.limits = limits;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws ExceededException {
+            bytesRead += n;
+            if (bytesRead > limits.maxBytes()) {
+                throw new ExceededException("Sitemap document exceeds the limit of " + limits.maxBytes() + " bytes");
+            }
+            if (limits.isExpired()) {
+                throw new ExceededException("Crawl deadline reached while reading sitemap document");
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package de.samuelgesang.backend.sitemaps;
+
+import java.util.function.Consumer;
+
+public interface SitemapListener {
+
+    // Reported as lastModified when a URL has no valid <lastmod>
+    long UNKNOWN_LAST_MODIFIED = 0;
+
+    /**
+     * @param lastModified {@code <lastmod>} of the URL in epoch seconds, or {@link #UNKNOWN_LAST_MODIFIED}
+     */
+    void onUrl(String loc, long lastModified);
+
+    void onSitemap(String loc);
+
+    static SitemapListener of(Consumer<String> urlConsumer, Consumer<String> sitemapConsumer) {
+        return new SitemapListener() {
+            @Override
+            public void onUrl(String loc, long lastModified) {
+                urlConsumer.accept(loc);
+            }
+
+            @Override
+            public void onSitemap(String loc) {
+                sitemapConsumer.accept(loc);
+            }
+        };
+    }
+}
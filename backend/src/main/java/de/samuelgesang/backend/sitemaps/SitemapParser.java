@@ -0,0 +1,154 @@
+package de.samuelgesang.backend.sitemaps;
+
+import de.samuelgesang.backend.exceptions.SitemapException;
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Pull parser for sitemap and sitemap index documents. Reads the stream once and reports every entry with its
+ * {@code <loc>} and {@code <lastmod>} to the listener as soon as it is read, so memory use does not depend on the document size.
+ */
+@Component
+public class SitemapParser {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    // Date and time with optional seconds, fraction and offset, a missing offset is read as UTC
+    private static final DateTimeFormatter LAST_MODIFIED_FORMAT = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .appendLiteral('T')
+            .appendPattern("HH:mm")
+            .optionalStart().appendPattern(":ss").optionalEnd()
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .parseDefaulting(ChronoField.OFFSET_SECONDS, 0)
+            .toFormatter(Locale.ROOT);
+
+    public void parse(InputStream inputStream, SitemapListener listener) throws IOException, SitemapException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+            readEntries(reader, listener);
+        } catch (XMLStreamException e) {
+            // Failures of the underlying stream are reported as such, not as broken XML
+            if (e.getNestedException() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new SitemapException("Invalid sitemap: The document is not well-formed XML.", e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void readEntries(XMLStreamReader reader, SitemapListener listener) throws XMLStreamException, SitemapException {
+        boolean rootSeen = false;
+        int depth = 0;
+        int entryDepth = -1;
+        String entryNamespace = null;
+        boolean entryIsSitemap = false;
+        String loc = null;
+        long lastModified = SitemapListener.UNKNOWN_LAST_MODIFIED;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String name = reader.getLocalName();
+                if (!rootSeen) {
+                    rootSeen = true;
+                    if ("html".equalsIgnoreCase(name)) {
+                        throw new SitemapException("Invalid sitemap URL: The URL returns an HTML document instead of an XML.");
+                    }
+                }
+
+                if (entryDepth < 0 && ("url".equals(name) || "sitemap".equals(name))) {
+                    entryDepth = depth;
+                    entryNamespace = reader.getNamespaceURI();
+                    entryIsSitemap = "sitemap".equals(name);
+                    loc = null;
+                    lastModified = SitemapListener.UNKNOWN_LAST_MODIFIED;
+                } else if (depth == entryDepth + 1 && Objects.equals(entryNamespace, reader.getNamespaceURI())
+                        && ("loc".equals(name) || "lastmod".equals(name))) {
+                    // getElementText() consumes the END_ELEMENT, so the depth has to be unwound here
+                    String text = reader.getElementText().trim();
+                    depth--;
+                    if ("loc".equals(name)) {
+                        loc = text;
+                    } else {
+                        lastModified = parseLastModified(text);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == entryDepth) {
+                    // <lastmod> may come before or after <loc>, so the entry is reported once it is complete
+                    if (loc != null && !loc.isEmpty()) {
+                        if (entryIsSitemap) {
+                            listener.onSitemap(loc);
+                        } else {
+                            listener.onUrl(loc, lastModified);
+                        }
+                    }
+                    entryDepth = -1;
+                    entryNamespace = null;
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Parses a W3C datetime as used by {@code <lastmod>}: a date with optional time and time zone,
+     * or only a year or year and month. Returns epoch seconds, or {@link SitemapListener#UNKNOWN_LAST_MODIFIED}.
+     */
+    static long parseLastModified(String value) {
+        try {
+            if (value.length() > 10) {
+                return OffsetDateTime.parse(value.replace(" ", "T"), LAST_MODIFIED_FORMAT).toEpochSecond();
+            }
+            String date = switch (value.length()) {
+                case 4 -> value + "-01-01";
+                case 7 -> value + "-01";
+                default -> value;
+            };
+            return LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return SitemapListener.UNKNOWN_LAST_MODIFIED;
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        // Merges CDATA sections and entity-escaped text into a single text value
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // Nothing left to read, the underlying stream is closed by the caller
+        }
+    }
+}
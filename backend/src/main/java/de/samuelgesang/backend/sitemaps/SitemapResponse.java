@@ -0,0 +1,8 @@
+package de.samuelgesang.backend.sitemaps;
+
+public record SitemapResponse<T>(boolean notModified, T body, String etag, String lastModified) {
+
+    static <T> SitemapResponse<T> notModified(String etag, String lastModified) {
+        return new SitemapResponse<>(true, null, etag, lastModified);
+    }
+}
@@ -1,102 +1,355 @@
 package de.samuelgesang.backend.sitemaps;
 
-import de.samuelgesang.backend.crawls.CrawlRepository;
+import de.samuelgesang.backend.cache.TtlCache;
 import de.samuelgesang.backend.exceptions.SitemapException;
-import de.samuelgesang.backend.url_chunk.UrlChunkRepository;
+import de.samuelgesang.backend.sitemap_cache.SitemapCacheEntry;
+import de.samuelgesang.backend.sitemap_cache.SitemapCacheRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.LongStream;
 
 @Service
 public class SitemapService {
 
     private static final Logger logger = LoggerFactory.getLogger(SitemapService.class);
+    // Keeps cached URL lists well below MongoDB's 16 MB document limit
+    private static final long MAX_CACHED_CHARACTERS = 8_000_000;
+    private static final int PROBE_BYTES = 4 * 1024;
+    private static final int MAX_ROBOTS_TXT_BYTES = 512 * 1024;
+    // Bodies up to this size are hashed in memory, larger ones are spooled to a temporary file
+    private static final int MAX_IN_MEMORY_SPOOL_BYTES = 4 * 1024 * 1024;
 
-    public SitemapService(CrawlRepository crawlRepository, UrlChunkRepository urlChunkRepository) {
+    private final SitemapParser sitemapParser;
+    private final SitemapFetcher sitemapFetcher;
+    private final SitemapCacheRepository sitemapCacheRepository;
+    private final Duration discoveryTimeout;
+    private final TtlCache<String, DiscoveryResult> discoveryCache;
+    private final Duration discoveryTtl;
+    private final Duration discoveryNegativeTtl;
+    private final Duration discoveryFailureTtl;
+
+    public SitemapService(SitemapParser sitemapParser,
+                          SitemapFetcher sitemapFetcher,
+                          SitemapCacheRepository sitemapCacheRepository,
+                          @Value("${sitemap.discovery.timeout:20s}") Duration discoveryTimeout,
+                          @Value("${sitemap.discovery.cache.max-size:1000}") int discoveryCacheSize,
+                          @Value("${sitemap.discovery.cache.ttl:24h}") Duration discoveryTtl,
+                          @Value("${sitemap.discovery.cache.negative-ttl:1h}") Duration discoveryNegativeTtl,
+                          @Value("${sitemap.discovery.cache.failure-ttl:5m}") Duration discoveryFailureTtl) {
+        this.sitemapParser = sitemapParser;
+        this.sitemapFetcher = sitemapFetcher;
+        this.sitemapCacheRepository = sitemapCacheRepository;
+        this.discoveryTimeout = discoveryTimeout;
+        this.discoveryCache = new TtlCache<>(discoveryCacheSize);
+        this.discoveryTtl = discoveryTtl;
+        this.discoveryNegativeTtl = discoveryNegativeTtl;
+        this.discoveryFailureTtl = discoveryFailureTtl;
     }
 
     public String findSitemapURL(String baseURL) throws SitemapException {
+        String cacheKey = normalizeBaseURL(baseURL);
+        DiscoveryResult cached = discoveryCache.get(cacheKey);
+        if (cached != null) {
+            return cached.toSitemapUrl();
+        }
+
+        try {
+            String sitemapUrl = discoverSitemapURL(baseURL);
+            discoveryCache.put(cacheKey, new DiscoveryResult(sitemapUrl, null), discoveryTtl);
+            return sitemapUrl;
+        } catch (SitemapNotFoundException e) {
+            discoveryCache.put(cacheKey, new DiscoveryResult(null, e.getMessage()), discoveryNegativeTtl);
+            throw e;
+        } catch (SitemapException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                discoveryCache.put(cacheKey, new DiscoveryResult(null, e.getMessage()), discoveryFailureTtl);
+            }
+            throw e;
+        }
+    }
+
+    public static String normalizeBaseURL(String baseURL) {
+        String siteWithoutProtocol = removeProtocolAndSubdomain(removeTrailingSlash(baseURL.strip()));
+        int pathStart = siteWithoutProtocol.indexOf('/');
+        if (pathStart < 0) {
+            return siteWithoutProtocol.toLowerCase(Locale.ROOT);
+        }
+        return siteWithoutProtocol.substring(0, pathStart).toLowerCase(Locale.ROOT) + siteWithoutProtocol.substring(pathStart);
+    }
+
+    private String discoverSitemapURL(String baseURL) throws SitemapException {
         String[] protocols = {"https://", "http://"};
         String[] subdomains = {"www.", ""};
 
         baseURL = removeTrailingSlash(baseURL);
+        String siteWithoutProtocol = removeProtocolAndSubdomain(baseURL);
+        int pathStart = siteWithoutProtocol.indexOf('/');
+        String host = pathStart < 0 ? siteWithoutProtocol : siteWithoutProtocol.substring(0, pathStart);
 
+        List<Callable<String>> robotsTxtCandidates = new ArrayList<>();
+        List<Callable<String>> fallbackCandidates = new ArrayList<>();
         for (String protocol : protocols) {
             for (String subdomain : subdomains) {
-                String sitemapUrl = protocol + subdomain + removeProtocolAndSubdomain(baseURL) + "/sitemap.xml";
-                if (isValidSitemap(sitemapUrl)) {
-                    return sitemapUrl;
+                String sitemapUrl = protocol + subdomain + siteWithoutProtocol + "/sitemap.xml";
+                String robotsUrl = protocol + subdomain + host + "/robots.txt";
+                robotsTxtCandidates.add(() -> findSitemapInRobotsTxt(robotsUrl));
+                fallbackCandidates.add(() -> probeSitemap(sitemapUrl));
+            }
+        }
+
+        // Sitemaps declared in robots.txt take precedence, /sitemap.xml is only probed if none of them is valid
+        Instant deadline = Instant.now().plus(discoveryTimeout);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            String sitemapUrl = firstValidCandidate(executor, robotsTxtCandidates, deadline);
+            if (sitemapUrl == null) {
+                sitemapUrl = firstValidCandidate(executor, fallbackCandidates, deadline);
+            }
+            if (sitemapUrl == null) {
+                throw new SitemapNotFoundException("No valid sitemap found for URL: " + baseURL);
+            }
+            return sitemapUrl;
+        } catch (TimeoutException e) {
+            throw new SitemapException("No valid sitemap found for URL: " + baseURL + " within " + discoveryTimeout.toSeconds() + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SitemapException("Interrupted while searching a sitemap for URL: " + baseURL, e);
+        }
+    }
+
+    // Runs all candidates at once but picks the result in list order, so the outcome does not depend on response times
+    private String firstValidCandidate(ExecutorService executor, List<Callable<String>> candidates, Instant deadline)
+            throws TimeoutException, InterruptedException {
+        List<Future<String>> futures = new ArrayList<>(candidates.size());
+        for (Callable<String> candidate : candidates) {
+            futures.add(executor.submit(candidate));
+        }
+        try {
+            for (Future<String> future : futures) {
+                try {
+                    return future.get(Math.max(0, Duration.between(Instant.now(), deadline).toMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    // Not a sitemap, try the next candidate
                 }
             }
+            return null;
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private String findSitemapInRobotsTxt(String robotsUrl) throws SitemapException {
+        List<String> sitemapUrls = sitemapFetcher.fetch(toURI(robotsUrl),
+                body -> RobotsTxt.parseSitemapDirectives(body, MAX_ROBOTS_TXT_BYTES));
+        for (String sitemapUrl : sitemapUrls) {
+            try {
+                return probeSitemap(sitemapUrl);
+            } catch (SitemapException e) {
+                logger.debug("Sitemap from {} is not valid: {}", robotsUrl, sitemapUrl);
+            }
+        }
+        throw new SitemapException("No valid sitemap listed in: " + robotsUrl);
+    }
+
+    private String probeSitemap(String sitemapUrl) throws SitemapException {
+        boolean valid = sitemapFetcher.fetch(toURI(sitemapUrl),
+                body -> looksLikeXml(new String(body.readNBytes(PROBE_BYTES), StandardCharsets.UTF_8)));
+        if (!valid) {
+            throw new SitemapException("Not a sitemap: " + sitemapUrl);
         }
-        throw new SitemapException("No valid sitemap found for URL: " + baseURL);
+        return sitemapUrl;
     }
 
-    private boolean isValidSitemap(String sitemapUrl) {
+    private URI toURI(String url) throws SitemapException {
         try {
-            String content = fetchContentFromURL(new URI(sitemapUrl).toURL());
-            return isXML(content);
-        } catch (Exception e) {
-            logger.error("Error validating sitemap URL: {}", sitemapUrl, e);
-            return false;
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            throw new SitemapException("Invalid URL: " + url, e);
         }
     }
 
-    public String fetchContentFromURL(URL url) throws SitemapException {
-        HttpURLConnection connection = null;
+    public void parseSitemap(URL url, SitemapListener listener) throws SitemapException {
         try {
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept", "application/xml");
-            connection.connect();
-
-            int responseCode = connection.getResponseCode();
-            if (responseCode != 200) {
-                throw new SitemapException("Failed to fetch content from URL: " + url + ". Response code: " + responseCode);
+            sitemapFetcher.fetch(url.toURI(), body -> {
+                sitemapParser.parse(body, listener);
+                return null;
+            });
+        } catch (URISyntaxException e) {
+            throw new SitemapException("Error fetching content from URL: " + url, e);
+        }
+    }
+
+    public SitemapDocument loadSitemap(URL url, SitemapLimits limits) throws SitemapException {
+        String key = url.toString();
+        // Entries written before URL lastmods were kept are refetched once
+        SitemapCacheEntry cached = sitemapCacheRepository.findById(key)
+                .filter(entry -> entry.getUrlLastModified() != null)
+                .orElse(null);
+        String etag = cached != null ? cached.getEtag() : null;
+        String lastModified = cached != null ? cached.getLastModified() : null;
+        String previousDigest = cached != null && cached.getUrls() != null ? cached.getDigest() : null;
+
+        List<String> urls = new ArrayList<>();
+        LongStream.Builder urlLastModified = LongStream.builder();
+        List<String> sitemaps = new ArrayList<>();
+        SitemapListener listener = new SitemapListener() {
+            @Override
+            public void onUrl(String loc, long lastModified) {
+                urls.add(loc);
+                urlLastModified.add(lastModified);
             }
 
-            if (url.getPath().endsWith(".gz")) {
-                try (GZIPInputStream gzipInputStream = new GZIPInputStream(url.openStream());
-                     BufferedReader reader = new BufferedReader(new InputStreamReader(gzipInputStream))) {
-                    StringBuilder content = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        content.append(line);
-                    }
-                    return content.toString();
-                }
-            } else {
-                try (Scanner scanner = new Scanner(url.openStream())) {
-                    StringBuilder content = new StringBuilder();
-                    while (scanner.hasNext()) {
-                        content.append(scanner.nextLine());
-                    }
-                    return content.toString();
+            @Override
+            public void onSitemap(String loc) {
+                sitemaps.add(loc);
+            }
+        };
+        SitemapResponse<String> response;
+        try {
+            response = sitemapFetcher.fetch(url.toURI(), etag, lastModified, limits, body -> previousDigest == null
+                    ? parseAndDigest(body, listener)
+                    : parseIfChanged(body, previousDigest, listener));
+        } catch (URISyntaxException e) {
+            throw new SitemapException("Error fetching content from URL: " + url, e);
+        }
+
+        if (response.notModified() && cached != null) {
+            logger.debug("Sitemap not modified, reusing cached URLs: {}", url);
+            return new SitemapDocument(cached.getUrls(), cached.getUrlLastModified(), cached.getSitemaps(), true, cached.getDigest());
+        }
+        if (previousDigest != null && previousDigest.equals(response.body())) {
+            logger.debug("Sitemap content unchanged, reusing cached URLs: {}", url);
+            updateValidators(cached, response);
+            return new SitemapDocument(cached.getUrls(), cached.getUrlLastModified(), cached.getSitemaps(), true, previousDigest);
+        }
+
+        long[] urlLastModifiedArray = urlLastModified.build().toArray();
+        updateCache(key, response, urls, urlLastModifiedArray, sitemaps);
+        return new SitemapDocument(urls, urlLastModifiedArray, sitemaps, false, response.body());
+    }
+
+    private String parseAndDigest(InputStream body, SitemapListener listener) throws IOException, SitemapException {
+        DigestInputStream in = new DigestInputStream(body, newDigest());
+        sitemapParser.parse(in, listener);
+        in.transferTo(OutputStream.nullOutputStream());
+        return HexFormat.of().formatHex(in.getMessageDigest().digest());
+    }
+
+    // Hashes the whole body before parsing, so an unchanged document is never parsed
+    private String parseIfChanged(InputStream body, String previousDigest, SitemapListener listener) throws IOException, SitemapException {
+        DigestInputStream in = new DigestInputStream(body, newDigest());
+        byte[] head = in.readNBytes(MAX_IN_MEMORY_SPOOL_BYTES);
+        if (head.length < MAX_IN_MEMORY_SPOOL_BYTES) {
+            String contentDigest = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            if (!contentDigest.equals(previousDigest)) {
+                sitemapParser.parse(new ByteArrayInputStream(head), listener);
+            }
+            return contentDigest;
+        }
+
+        Path spoolFile = Files.createTempFile("sitemap", ".xml");
+        try {
+            try (OutputStream out = Files.newOutputStream(spoolFile)) {
+                out.write(head);
+                in.transferTo(out);
+            }
+            String contentDigest = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            if (!contentDigest.equals(previousDigest)) {
+                try (InputStream spooled = new BufferedInputStream(Files.newInputStream(spoolFile))) {
+                    sitemapParser.parse(spooled, listener);
                 }
             }
-        } catch (Exception e) {
-            String errorMessage = "Error fetching content from URL: " + url;
-            throw new SitemapException(errorMessage, e);
+            return contentDigest;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            Files.deleteIfExists(spoolFile);
         }
     }
 
-    public boolean isXML(String content) {
-        return content.trim().startsWith("<");
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 
-    private String removeProtocolAndSubdomain(String urlString) {
+    private void updateValidators(SitemapCacheEntry cached, SitemapResponse<String> response) {
+        if (Objects.equals(cached.getEtag(), response.etag()) && Objects.equals(cached.getLastModified(), response.lastModified())) {
+            return;
+        }
+        cached.setEtag(response.etag());
+        cached.setLastModified(response.lastModified());
+        cached.setFetchedAt(Instant.now().toString());
+        sitemapCacheRepository.save(cached);
+    }
+
+    private void updateCache(String key, SitemapResponse<String> response, List<String> urls, long[] urlLastModified, List<String> sitemaps) {
+        if (estimateSize(urls) + estimateSize(sitemaps) > MAX_CACHED_CHARACTERS) {
+            logger.info("Sitemap too large to cache: {}", key);
+            sitemapCacheRepository.deleteById(key);
+            return;
+        }
+
+        SitemapCacheEntry entry = new SitemapCacheEntry();
+        entry.setUrl(key);
+        entry.setEtag(response.etag());
+        entry.setLastModified(response.lastModified());
+        entry.setDigest(response.body());
+        entry.setFetchedAt(Instant.now().toString());
+        entry.setUrls(urls);
+        entry.setUrlLastModified(urlLastModified);
+        entry.setSitemaps(sitemaps);
+        sitemapCacheRepository.save(entry);
+    }
+
+    private long estimateSize(List<String> values) {
+        long size = 0;
+        for (String value : values) {
+            size += value.length();
+        }
+        return size;
+    }
+
+    private boolean looksLikeXml(String head) {
+        String content = head.strip();
+        if (content.startsWith("\uFEFF")) {
+            content = content.substring(1).strip();
+        }
+        String lowerCase = content.toLowerCase(Locale.ROOT);
+        return content.startsWith("<") && !lowerCase.startsWith("<!doctype html") && !lowerCase.startsWith("<html");
+    }
+
+    private static String removeProtocolAndSubdomain(String urlString) {
         if (urlString.startsWith("http://")) {
             urlString = urlString.substring(7);
         } else if (urlString.startsWith("https://")) {
@@ -111,7 +364,7 @@ public class SitemapService {
     }
 
 
-    private String removeTrailingSlash(String urlString) {
+    private static String removeTrailingSlash(String urlString) {
         if (urlString.endsWith("/")) {
             return urlString.substring(0, urlString.length() - 1);
         } else {
@@ -119,5 +372,18 @@ public class SitemapService {
         }
     }
 
+    private record DiscoveryResult(String sitemapUrl, String error) {
+        String toSitemapUrl() throws SitemapException {
+            if (sitemapUrl == null) {
+                throw new SitemapException(error);
+            }
+            return sitemapUrl;
+        }
+    }
 
+    private static class SitemapNotFoundException extends SitemapException {
+        SitemapNotFoundException(String message) {
+            super(message);
+        }
+    }
 }
@@ -1,17 +1,29 @@
 package de.samuelgesang.backend.sites;
 
+import de.samuelgesang.backend.cache.TtlCache;
 import de.samuelgesang.backend.crawls.Crawl;
 import de.samuelgesang.backend.crawls.CrawlRepository;
 import de.samuelgesang.backend.crawls.CrawlService;
+import de.samuelgesang.backend.sitemaps.HostRateLimiter;
+import de.samuelgesang.backend.sitemaps.SitemapService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -21,14 +33,32 @@ public class SiteService {
 
     private final SiteRepository siteRepository;
     private final CrawlRepository crawlRepository;
+    private final MongoTemplate mongoTemplate;
     private final CrawlService crawlService;
+    private final HostRateLimiter hostRateLimiter;
+    private final TtlCache<String, Optional<String>> faviconCache;
+    private final Duration faviconTtl;
+    private final Duration faviconNegativeTtl;
+    private final Duration faviconPermitTimeout;
 
     public SiteService(SiteRepository siteRepository,
                        CrawlRepository crawlRepository,
-                       @Lazy CrawlService crawlService) {
+                       MongoTemplate mongoTemplate,
+                       @Lazy CrawlService crawlService,
+                       HostRateLimiter hostRateLimiter,
+                       @Value("${site.favicon.cache.max-size:1000}") int faviconCacheSize,
+                       @Value("${site.favicon.cache.ttl:7d}") Duration faviconTtl,
+                       @Value("${site.favicon.cache.negative-ttl:1h}") Duration faviconNegativeTtl,
+                       @Value("${site.favicon.permit-timeout:2s}") Duration faviconPermitTimeout) {
         this.siteRepository = siteRepository;
         this.crawlRepository = crawlRepository;
+        this.mongoTemplate = mongoTemplate;
         this.crawlService = crawlService;
+        this.hostRateLimiter = hostRateLimiter;
+        this.faviconCache = new TtlCache<>(faviconCacheSize);
+        this.faviconTtl = faviconTtl;
+        this.faviconNegativeTtl = faviconNegativeTtl;
+        this.faviconPermitTimeout = faviconPermitTimeout;
     }
 
     public List<Site> getAllSites(String userId) {
@@ -58,30 +88,30 @@ public class SiteService {
     public Site updateSite(SiteUpdateDTO siteUpdateDTO) {
         Site existingSite = siteRepository.findById(siteUpdateDTO.getId())
                 .orElseThrow(() -> new RuntimeException("Site not found"));
-
-        existingSite.setName(siteUpdateDTO.getName());
-        existingSite.setBaseURL(siteUpdateDTO.getBaseURL());
-        existingSite.setSitemap(siteUpdateDTO.getSitemap());
-        existingSite.setCrawlSchedule(siteUpdateDTO.getCrawlSchedule());
-        existingSite.setEmail(siteUpdateDTO.getEmail());
-
-        String favicon = extractFavicon(existingSite.getBaseURL());
-        existingSite.setFavicon(favicon);
-
-        return siteRepository.save(existingSite);
+        return updateSite(existingSite, siteUpdateDTO.getName(), siteUpdateDTO.getBaseURL(), siteUpdateDTO.getSitemap(),
+                siteUpdateDTO.getCrawlSchedule(), siteUpdateDTO.getEmail());
     }
 
     public Site updateSite(String id, Site site) {
         Site existingSite = siteRepository.findById(id).orElseThrow(() -> new RuntimeException("Site not found"));
-        existingSite.setName(site.getName());
-        existingSite.setBaseURL(site.getBaseURL());
-        existingSite.setSitemap(site.getSitemap());
-        existingSite.setCrawlSchedule(site.getCrawlSchedule());
-        String favicon = extractFavicon(site.getBaseURL());
-        existingSite.setFavicon(favicon);
-        existingSite.setCrawlIds(site.getCrawlIds());
-        existingSite.setEmail(site.getEmail());
-        return siteRepository.save(existingSite);
+        return updateSite(existingSite, site.getName(), site.getBaseURL(), site.getSitemap(), site.getCrawlSchedule(), site.getEmail());
+    }
+
+    // Only sets the edited fields, crawlIds is maintained by the crawls and a crawl may push to it meanwhile
+    private Site updateSite(Site existingSite, String name, String baseURL, String sitemap, String crawlSchedule, String email) {
+        Update update = new Update()
+                .set("name", name)
+                .set("baseURL", baseURL)
+                .set("sitemap", sitemap)
+                .set("crawlSchedule", crawlSchedule)
+                .set("email", email)
+                .set("favicon", resolveFavicon(existingSite, baseURL));
+        Site updatedSite = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(existingSite.getId())), update,
+                FindAndModifyOptions.options().returnNew(true), Site.class);
+        if (updatedSite == null) {
+            throw new RuntimeException("Site not found");
+        }
+        return updatedSite;
     }
 
     public void deleteSite(String id, String userId) {
@@ -124,7 +154,32 @@ public class SiteService {
         return siteRepository.findByCrawlSchedule(schedule);
     }
 
+    // Only look the favicon up again when the site moved or none was found before
+    private String resolveFavicon(Site existingSite, String newBaseURL) {
+        boolean sameBaseURL = existingSite.getBaseURL() != null && newBaseURL != null
+                && SitemapService.normalizeBaseURL(existingSite.getBaseURL()).equals(SitemapService.normalizeBaseURL(newBaseURL));
+        if (sameBaseURL && existingSite.getFavicon() != null) {
+            return existingSite.getFavicon();
+        }
+        return extractFavicon(newBaseURL);
+    }
+
     private String extractFavicon(String baseURL) {
+        if (baseURL == null) {
+            return null;
+        }
+        String cacheKey = SitemapService.normalizeBaseURL(baseURL);
+        Optional<String> cached = faviconCache.get(cacheKey);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+
+        String favicon = findFavicon(baseURL);
+        faviconCache.put(cacheKey, Optional.ofNullable(favicon), favicon != null ? faviconTtl : faviconNegativeTtl);
+        return favicon;
+    }
+
+    private String findFavicon(String baseURL) {
         String[] prefixes = {"http://", "https://", ""};
         String[] domains = {"", "www."};
 
@@ -141,8 +196,21 @@ public class SiteService {
     }
 
     private String tryExtractFavicon(String baseURL) {
-        try {
-            Document doc = Jsoup.connect(baseURL).get();
+        // Runs on the request thread, so a busy or paused host means no favicon rather than a slow response
+        try (HostRateLimiter.Permit permit = hostRateLimiter.acquire(hostOf(baseURL), Instant.now().plus(faviconPermitTimeout))) {
+            if (permit == null) {
+                return null;
+            }
+            Connection.Response response = Jsoup.connect(baseURL).ignoreHttpErrors(true).execute();
+            if (HostRateLimiter.isBackOffStatus(response.statusCode())) {
+                hostRateLimiter.backOff(hostOf(baseURL), response.header("Retry-After"));
+                return null;
+            }
+            if (response.statusCode() >= 400) {
+                return null;
+            }
+
+            Document doc = response.parse();
             Element iconLink = doc.select("link[rel~=(?i)^(shortcut icon|icon|apple-touch-icon|alternate icon|mask-icon|fluid-icon|manifest)]").first();
 
             if (iconLink != null) {
@@ -155,8 +223,20 @@ public class SiteService {
             } else {
                 return URI.create(baseURL).resolve("/favicon.ico").toString();
             }
-        } catch (IOException e) {
-            // Suppress the stack trace to avoid cluttering the logs
+        } catch (IOException | IllegalArgumentException e) {
+            // Suppress the stack trace to avoid cluttering the logs, invalid URLs are one of the tried variants
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private String hostOf(String url) {
+        try {
+            // Without a scheme the URI has no host, which would put every scheme-less variant in one bucket
+            return URI.create(url.contains("://") ? url : "http://" + url).getHost();
+        } catch (IllegalArgumentException e) {
             return null;
         }
     }
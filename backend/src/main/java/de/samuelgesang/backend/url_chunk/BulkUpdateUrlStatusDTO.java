@@ -0,0 +1,17 @@
+package de.samuelgesang.backend.url_chunk;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+public class BulkUpdateUrlStatusDTO {
+    // Updates these URLs, or every item with the action if no URLs are given
+    private List<String> urls;
+    private String action;
+    private boolean checked;
+}
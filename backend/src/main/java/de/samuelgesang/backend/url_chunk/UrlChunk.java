@@ -14,5 +14,9 @@ public class UrlChunk {
     @Id
     private String id;
     private String crawlId;
+    // One of the UrlChunkCodec formats, decides whether the URLs are in urls or in data
+    private int format;
+    private int count;
+    private byte[] data;
     private List<String> urls;
 }
\ No newline at end of file
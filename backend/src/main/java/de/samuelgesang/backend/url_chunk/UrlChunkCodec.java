@@ -0,0 +1,112 @@
+package de.samuelgesang.backend.url_chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary format of {@link UrlChunk#getData()}. Version {@value #FRONT_CODED_DEFLATE}: the URL count, then every URL
+ * as the length of the prefix it shares with its predecessor and the remaining UTF-8 bytes, all lengths as
+ * varints, compressed with deflate. URLs are stored in the given order, sorted input compresses best.
+ */
+public final class UrlChunkCodec {
+
+    // Chunks written before the binary format keep their URLs in the urls array
+    public static final int LEGACY_FORMAT = 0;
+    public static final int FRONT_CODED_DEFLATE = 1;
+
+    private UrlChunkCodec() {
+    }
+
+    public static byte[] encode(List<String> urls) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(bytes, deflater, 8192)) {
+            writeVarint(out, urls.size());
+            byte[] previous = new byte[0];
+            for (String url : urls) {
+                byte[] key = url.getBytes(StandardCharsets.UTF_8);
+                int prefix = Arrays.mismatch(previous, key);
+                if (prefix < 0) {
+                    prefix = key.length;
+                }
+                writeVarint(out, prefix);
+                writeVarint(out, key.length - prefix);
+                out.write(key, prefix, key.length - prefix);
+                previous = key;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<String> decode(byte[] data) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(), 8192)) {
+            int count = readVarint(in);
+            List<String> urls = new ArrayList<>(count);
+            byte[] current = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int prefix = readVarint(in);
+                int suffix = readVarint(in);
+                if (prefix + suffix > current.length) {
+                    current = Arrays.copyOf(current, Math.max(prefix + suffix, current.length * 2));
+                }
+                if (in.readNBytes(current, prefix, suffix) != suffix) {
+                    throw new IOException("Truncated URL chunk");
+                }
+                urls.add(new String(current, 0, prefix + suffix, StandardCharsets.UTF_8));
+            }
+            return urls;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the URLs of a chunk in either format.
+     */
+    public static List<String> urlsOf(UrlChunk chunk) {
+        return switch (chunk.getFormat()) {
+            case LEGACY_FORMAT -> chunk.getUrls() == null ? List.of() : chunk.getUrls();
+            case FRONT_CODED_DEFLATE -> decode(chunk.getData());
+            default -> throw new IllegalStateException("Unknown format " + chunk.getFormat() + " of URL chunk " + chunk.getId());
+        };
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated URL chunk");
+            }
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,71 @@
+package de.samuelgesang.backend.url_chunk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Rewrites URL chunks stored before the binary format in the background after startup. Legacy chunks stay
+ * readable in the meantime, so the migration can be interrupted and resumes with the next start.
+ */
+@Component
+public class UrlChunkFormatMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(UrlChunkFormatMigration.class);
+    private static final int BATCH_SIZE = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean migrateOnStartup;
+
+    public UrlChunkFormatMigration(MongoTemplate mongoTemplate,
+                                   @Value("${crawl.chunks.migrate-on-startup:true}") boolean migrateOnStartup) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (!migrateOnStartup) {
+            return;
+        }
+        Thread.ofVirtual().name("url-chunk-format-migration").start(this::convertLegacyChunks);
+    }
+
+    private void convertLegacyChunks() {
+        long converted = 0;
+        try {
+            List<UrlChunk> chunks;
+            while (!(chunks = mongoTemplate.find(legacyChunks().limit(BATCH_SIZE), UrlChunk.class)).isEmpty()) {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UrlChunk.class);
+                for (UrlChunk chunk : chunks) {
+                    List<String> urls = UrlChunkCodec.urlsOf(chunk);
+                    // Only rewrite the chunk if no one else converted it in the meantime
+                    bulk.updateOne(legacyChunks().addCriteria(Criteria.where("_id").is(chunk.getId())), new Update()
+                            .set("format", UrlChunkCodec.FRONT_CODED_DEFLATE)
+                            .set("count", urls.size())
+                            .set("data", UrlChunkCodec.encode(urls))
+                            .unset("urls"));
+                }
+                bulk.execute();
+                converted += chunks.size();
+            }
+            logger.info("URL chunk format migration finished, converted {} chunks", converted);
+        } catch (Exception e) {
+            logger.error("URL chunk format migration failed after {} chunks: {}", converted, e.getMessage(), e);
+        }
+    }
+
+    private static Query legacyChunks() {
+        return new Query(Criteria.where("data").exists(false));
+    }
+}
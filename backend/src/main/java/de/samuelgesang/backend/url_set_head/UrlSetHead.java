@@ -0,0 +1,23 @@
+package de.samuelgesang.backend.url_set_head;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/**
+ * The chunks holding the URL set of the latest crawl of a site, one per site. The head is only complete
+ * if all listed chunks exist.
+ */
+@Setter
+@Getter
+@Document(collection = "url_set_head_manifests")
+public class UrlSetHead {
+    @Id
+    private String siteId;
+    private String crawlId;
+    private long urlCount;
+    private List<String> chunkIds;
+}
@@ -0,0 +1,24 @@
+package de.samuelgesang.backend.url_set_head;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Part of the full URL set of the latest crawl of a site, encoded with {@code UrlChunkCodec}. The id is derived
+ * from the site and the content, so a chunk that is equal in the next head is kept instead of written again.
+ * Which chunks make up the head is recorded in its {@link UrlSetHead}.
+ */
+@Setter
+@Getter
+@Document(collection = "url_set_heads")
+public class UrlSetHeadChunk {
+    @Id
+    private String id;
+    @Indexed
+    private String siteId;
+    private int count;
+    private byte[] data;
+}
@@ -0,0 +1,7 @@
+package de.samuelgesang.backend.url_set_head;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface UrlSetHeadChunkRepository extends MongoRepository<UrlSetHeadChunk, String> {
+    void deleteBySiteId(String siteId);
+}
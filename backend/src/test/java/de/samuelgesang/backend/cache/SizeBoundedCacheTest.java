@@ -0,0 +1,42 @@
+package de.samuelgesang.backend.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SizeBoundedCacheTest {
+
+    @Test
+    void putEvictsLeastRecentlyUsedEntriesUntilTheValueFits() {
+        SizeBoundedCache<String, String> cache = new SizeBoundedCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccccc");
+
+        assertThat(cache.get("a")).isEqualTo("aaaa");
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("c")).isEqualTo("cccccc");
+        assertThat(cache.size()).isEqualTo(10);
+    }
+
+    @Test
+    void putSkipsValuesLargerThanTheCache() {
+        SizeBoundedCache<String, String> cache = new SizeBoundedCache<>(3, String::length);
+        cache.put("a", "aaa");
+        cache.put("a", "aaaa");
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void invalidateReleasesTheSize() {
+        SizeBoundedCache<String, String> cache = new SizeBoundedCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.invalidate("a");
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+}
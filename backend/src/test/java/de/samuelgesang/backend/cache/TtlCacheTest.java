@@ -0,0 +1,74 @@
+package de.samuelgesang.backend.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TtlCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void getReturnsValueUntilItExpires() {
+        TtlCache<String, String> cache = new TtlCache<>(10, clock);
+        cache.put("example.com", "https://example.com/sitemap.xml", Duration.ofMinutes(5));
+
+        clock.advance(Duration.ofMinutes(4));
+        assertThat(cache.get("example.com")).isEqualTo("https://example.com/sitemap.xml");
+
+        clock.advance(Duration.ofMinutes(1));
+        assertThat(cache.get("example.com")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void putEvictsLeastRecentlyUsedEntryWhenFull() {
+        TtlCache<String, Integer> cache = new TtlCache<>(2, clock);
+        cache.put("a", 1, Duration.ofHours(1));
+        cache.put("b", 2, Duration.ofHours(1));
+        cache.get("a");
+        cache.put("c", 3, Duration.ofHours(1));
+
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("c")).isEqualTo(3);
+    }
+
+    @Test
+    void invalidateRemovesEntry() {
+        TtlCache<String, Integer> cache = new TtlCache<>(2, clock);
+        cache.put("a", 1, Duration.ofHours(1));
+        cache.invalidate("a");
+
+        assertThat(cache.get("a")).isNull();
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
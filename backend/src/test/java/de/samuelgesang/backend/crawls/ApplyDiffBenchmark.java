@@ -0,0 +1,80 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares replaying a diff on an {@link ArrayList} with {@link CompactUrlSet}. Not part of the test suite,
+ * run the main method manually. Each size removes 10% of the URLs and adds as many new ones.
+ */
+public class ApplyDiffBenchmark {
+
+    private static final int[] SIZES = {10_000, 50_000, 100_000, 200_000};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %10s %14s %14s%n", "urls", "diff", "list (ms)", "compact (ms)");
+        for (int size : SIZES) {
+            List<String> urls = urls(size);
+            List<CrawlDiffItem> diff = diff(size, size / 10);
+
+            long listMillis = Long.MAX_VALUE;
+            long compactMillis = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                listMillis = Math.min(listMillis, time(() -> replayOnList(urls, diff)));
+                compactMillis = Math.min(compactMillis, time(() -> replayOnCompactSet(urls, diff)));
+            }
+            System.out.printf("%10d %10d %14d %14d%n", size, diff.size(), listMillis, compactMillis);
+        }
+    }
+
+    private static int replayOnList(List<String> previous, List<CrawlDiffItem> diff) {
+        List<String> urls = new ArrayList<>(previous);
+        for (CrawlDiffItem item : diff) {
+            if ("add".equals(item.getAction())) {
+                urls.add(item.getUrl());
+            } else {
+                urls.remove(item.getUrl());
+            }
+        }
+        return urls.size();
+    }
+
+    private static int replayOnCompactSet(List<String> previous, List<CrawlDiffItem> diff) {
+        CompactUrlSet urls = CompactUrlSet.copyOf(previous);
+        urls.apply(diff);
+        urls.compact();
+        return urls.size();
+    }
+
+    private static long time(Runnable replay) {
+        long start = System.nanoTime();
+        replay.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static List<String> urls(int size) {
+        List<String> urls = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            urls.add("https://example.com/page/" + i);
+        }
+        return urls;
+    }
+
+    // Removals are taken from the end of the list, the worst case for ArrayList.remove(Object)
+    private static List<CrawlDiffItem> diff(int size, int changes) {
+        List<CrawlDiffItem> diff = new ArrayList<>(changes * 2);
+        for (int i = 0; i < changes; i++) {
+            diff.add(item("remove", "https://example.com/page/" + (size - 1 - i)));
+            diff.add(item("add", "https://example.com/new/" + i));
+        }
+        return diff;
+    }
+
+    private static CrawlDiffItem item(String action, String url) {
+        CrawlDiffItem item = new CrawlDiffItem();
+        item.setAction(action);
+        item.setUrl(url);
+        return item;
+    }
+}
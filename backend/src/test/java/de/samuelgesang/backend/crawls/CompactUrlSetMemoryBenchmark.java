@@ -0,0 +1,65 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the heap held while diffing two crawls: the previous representation (two URL lists and the two
+ * hash sets built by the diff) against two {@link CompactUrlSet}s. Not part of the test suite, run the main
+ * method manually with a fixed heap, e.g. {@code -Xms2g -Xmx2g}.
+ */
+public class CompactUrlSetMemoryBenchmark {
+
+    private static final int[] SIZES = {100_000, 500_000};
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %16s %16s %8s%n", "urls", "lists+sets (MB)", "compact (MB)", "ratio");
+        for (int size : SIZES) {
+            long baseline = usedHeap();
+            List<Object> retained = new ArrayList<>();
+            List<String> current = urls(size, 0);
+            List<String> previous = urls(size, size / 10);
+            Set<String> currentSet = new HashSet<>(current);
+            Set<String> previousSet = new HashSet<>(previous);
+            retained.add(List.of(current, previous, currentSet, previousSet));
+            long listsAndSets = usedHeap() - baseline;
+            retained.clear();
+            current = null;
+            previous = null;
+            currentSet = null;
+            previousSet = null;
+
+            baseline = usedHeap();
+            CompactUrlSet compactCurrent = CompactUrlSet.copyOf(urls(size, 0));
+            CompactUrlSet compactPrevious = CompactUrlSet.copyOf(urls(size, size / 10));
+            retained.add(List.of(compactCurrent, compactPrevious));
+            long compact = usedHeap() - baseline;
+            retained.clear();
+
+            System.out.printf("%10d %16.1f %16.1f %7.1fx%n", size, megabytes(listsAndSets), megabytes(compact),
+                    (double) listsAndSets / compact);
+        }
+    }
+
+    private static List<String> urls(int size, int offset) {
+        List<String> urls = new ArrayList<>(size);
+        for (int i = offset; i < size + offset; i++) {
+            urls.add("https://www.example-shop.com/en-gb/products/category-" + (i % 40) + "/item-" + i + "-detail-page");
+        }
+        return urls;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024d * 1024d);
+    }
+}
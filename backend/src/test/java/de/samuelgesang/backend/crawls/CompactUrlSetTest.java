@@ -0,0 +1,67 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactUrlSetTest {
+
+    @Test
+    void copyOfSortsAndRemovesDuplicates() {
+        CompactUrlSet urls = CompactUrlSet.copyOf(List.of("https://example.com/b", "https://example.com/a", "https://example.com/b"));
+
+        assertThat(urls).containsExactly("https://example.com/a", "https://example.com/b");
+        assertThat(urls.size()).isEqualTo(2);
+    }
+
+    @Test
+    void addRemoveAndContainsAcrossCompactions() {
+        CompactUrlSet urls = new CompactUrlSet();
+        TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            String url = "https://example.com/category-" + (i % 7) + "/page-" + i;
+            assertThat(urls.add(url)).isEqualTo(expected.add(url));
+            if (i % 3 == 0) {
+                String removed = "https://example.com/category-" + (i / 2 % 7) + "/page-" + (i / 2);
+                assertThat(urls.remove(removed)).isEqualTo(expected.remove(removed));
+            }
+        }
+
+        assertThat(urls.size()).isEqualTo(expected.size());
+        assertThat(urls.contains("https://example.com/category-1/page-1")).isEqualTo(expected.contains("https://example.com/category-1/page-1"));
+        assertThat(urls.contains("https://example.com/category-0/page-3")).isFalse();
+        assertThat(urls.contains("https://example.com/missing")).isFalse();
+        urls.compact();
+        assertThat(urls).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void applyReplaysDiff() {
+        CompactUrlSet urls = CompactUrlSet.copyOf(List.of("/a", "/b", "/c"));
+        urls.apply(List.of(item("remove", "/a"), item("add", "/d"), item("remove", "/missing"), item("add", "/b")));
+        urls.apply(null);
+
+        assertThat(urls).containsExactly("/b", "/c", "/d");
+    }
+
+    @Test
+    void unionMergesSetsInOrder() {
+        List<CompactUrlSet> parts = new ArrayList<>();
+        parts.add(CompactUrlSet.copyOf(List.of("/c", "/a")));
+        parts.add(new CompactUrlSet());
+        parts.add(CompactUrlSet.copyOf(List.of("/b", "/ä", "/a")));
+
+        assertThat(CompactUrlSet.union(parts)).containsExactly("/a", "/b", "/c", "/ä");
+    }
+
+    private static CrawlDiffItem item(String action, String url) {
+        CrawlDiffItem item = new CrawlDiffItem();
+        item.setAction(action);
+        item.setUrl(url);
+        return item;
+    }
+}
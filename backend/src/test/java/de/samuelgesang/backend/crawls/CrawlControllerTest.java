@@ -0,0 +1,64 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.exceptions.CrawlInProgressException;
+import de.samuelgesang.backend.sites.Site;
+import de.samuelgesang.backend.sites.SiteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+class CrawlControllerTest {
+
+    @Mock
+    private SiteService siteService;
+
+    @Mock
+    private CrawlService crawlService;
+
+    @Mock
+    private OAuth2User oauth2User;
+
+    @InjectMocks
+    private CrawlController crawlController;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(oauth2User.getAttributes()).thenReturn(Map.of("sub", "user123"));
+    }
+
+    @Test
+    void crawlSiteByIdReturnsConflictWhileCrawlIsRunning() throws Exception {
+        Site site = new Site("1", "Example", "https://example.com", "https://example.com/sitemap.xml", "", "user123", "", "", new ArrayList<>());
+        when(siteService.getSiteById("1")).thenReturn(Optional.of(site));
+        when(crawlService.crawlSite(site)).thenThrow(new CrawlInProgressException("A crawl of site Example is already running."));
+
+        ResponseEntity<String> response = crawlController.crawlSiteById("1", oauth2User);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals("A crawl of site Example is already running.", response.getBody());
+    }
+
+    @Test
+    void deleteCrawlReturnsConflictWhileCrawlIsRunning() {
+        doThrow(new CrawlInProgressException("A crawl of site Example is already running."))
+                .when(crawlService).deleteCrawl("crawl1", "user123");
+
+        ResponseEntity<String> response = crawlController.deleteCrawl("crawl1", oauth2User);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+    }
+}
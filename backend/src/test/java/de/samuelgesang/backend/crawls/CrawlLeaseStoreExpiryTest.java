@@ -0,0 +1,69 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.crawl_lease.CrawlLease;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataMongoTest
+@ExtendWith(SpringExtension.class)
+@Import(CrawlLeaseStore.class)
+class CrawlLeaseStoreExpiryTest {
+
+    @Autowired
+    private CrawlLeaseStore crawlLeases;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(CrawlLease.class);
+    }
+
+    @Test
+    void heldLeaseIsNotHandedOutTwice() {
+        String owner = crawlLeases.tryAcquire("siteId");
+
+        assertThat(owner).isNotNull();
+        assertThat(crawlLeases.tryAcquire("siteId")).isNull();
+
+        crawlLeases.release("siteId", owner);
+        assertThat(crawlLeases.tryAcquire("siteId")).isNotNull();
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        // A lease left behind by an instance that stopped before releasing it
+        CrawlLease lease = new CrawlLease();
+        lease.setId("siteId");
+        lease.setOwner("crashed");
+        lease.setAcquiredAt(Instant.now().minusSeconds(7200));
+        lease.setExpiresAt(Instant.now().minusSeconds(60));
+        mongoTemplate.save(lease);
+
+        String owner = crawlLeases.tryAcquire("siteId");
+
+        assertThat(owner).isNotNull().isNotEqualTo("crashed");
+        assertThat(mongoTemplate.findById("siteId", CrawlLease.class).getOwner()).isEqualTo(owner);
+    }
+
+    @Test
+    void releaseOnlyRemovesOwnLease() {
+        String owner = crawlLeases.tryAcquire("siteId");
+
+        crawlLeases.release("siteId", "otherOwner");
+
+        assertThat(crawlLeases.tryAcquire("siteId")).isNull();
+        crawlLeases.release("siteId", owner);
+    }
+}
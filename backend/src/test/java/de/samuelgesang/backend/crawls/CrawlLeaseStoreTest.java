@@ -0,0 +1,66 @@
+package de.samuelgesang.backend.crawls;
+
+import com.mongodb.client.result.UpdateResult;
+import de.samuelgesang.backend.crawl_lease.CrawlLease;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CrawlLeaseStoreTest {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final CrawlLeaseStore crawlLeases = new CrawlLeaseStore(mongoTemplate, Duration.ofMillis(300));
+
+    @Test
+    void tryAcquireRenewsLeaseUntilReleased() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        String owner = crawlLeases.tryAcquire("siteId");
+
+        assertThat(owner).isNotNull();
+        verify(mongoTemplate, timeout(1000).atLeast(2)).updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class));
+
+        crawlLeases.release("siteId", owner);
+        Mockito.clearInvocations(mongoTemplate);
+
+        verify(mongoTemplate, after(500).never()).updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class));
+    }
+
+    @Test
+    void tryAcquireReturnsNullWhileLeaseIsHeld() {
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(CrawlLease.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key"));
+
+        assertThat(crawlLeases.tryAcquire("siteId")).isNull();
+
+        verify(mongoTemplate, after(500).never()).updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class));
+    }
+
+    @Test
+    void renewalStopsWhenLeaseWasLost() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        crawlLeases.tryAcquire("siteId");
+
+        verify(mongoTemplate, timeout(1000)).updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class));
+        Mockito.clearInvocations(mongoTemplate);
+        verify(mongoTemplate, after(500).never()).updateFirst(any(Query.class), any(Update.class), eq(CrawlLease.class));
+    }
+}
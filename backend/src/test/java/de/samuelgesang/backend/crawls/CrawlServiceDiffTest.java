@@ -0,0 +1,323 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.crawl_fingerprint.CrawlFingerprints;
+import de.samuelgesang.backend.sitemap_child_state.SitemapChildState;
+import de.samuelgesang.backend.sitemap_child_state.SitemapChildStateRepository;
+import de.samuelgesang.backend.sitemaps.SitemapDocument;
+import de.samuelgesang.backend.sitemaps.SitemapService;
+import de.samuelgesang.backend.sites.Site;
+import de.samuelgesang.backend.sites.SiteRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+class CrawlServiceDiffTest {
+
+    private static final String SITEMAP = "https://example.com/sitemap.xml";
+
+    @Autowired
+    private CrawlService crawlService;
+
+    @Autowired
+    private CrawlDiffStore crawlDiffs;
+
+    @Autowired
+    private CrawlRepository crawlRepository;
+
+    @Autowired
+    private UrlSetHeadStore urlSetHeads;
+
+    @Autowired
+    private SiteRepository siteRepository;
+
+    @Autowired
+    private SitemapChildStateRepository sitemapChildStateRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @MockBean
+    private SitemapService sitemapService;
+
+    private final Map<String, SitemapDocument> documents = new HashMap<>();
+    private Site site;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(sitemapService.loadSitemap(any(URL.class), any())).thenAnswer(invocation -> {
+            String url = invocation.getArgument(0, URL.class).toString();
+            SitemapDocument document = documents.get(url);
+            if (document == null) {
+                throw new IllegalStateException("No sitemap served at " + url);
+            }
+            return document;
+        });
+
+        site = new Site();
+        // A fresh site per test, so the cached URL set heads of other tests are never hit
+        site.setId(new ObjectId().toHexString());
+        site.setName("Test Site");
+        site.setBaseURL("https://example.com");
+        site.setSitemap(SITEMAP);
+        site.setUserId("userId");
+        site.setCrawlIds(new ArrayList<>());
+        siteRepository.save(site);
+    }
+
+    @Test
+    void unchangedCrawlHasEmptyDiff() throws Exception {
+        serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100));
+        crawlService.crawlSite(site);
+        forgetChildStates();
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl)).isEmpty();
+        assertThat(crawl.getPrevCrawlId()).isNotNull();
+    }
+
+    @Test
+    void fingerprintDiffReportsAddedRemovedAndModifiedUrls() throws Exception {
+        serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100, "https://example.com/c", 100));
+        crawlService.crawlSite(site);
+        forgetChildStates();
+        serve(SITEMAP, "v2", urls("https://example.com/a", 100, "https://example.com/b", 200, "https://example.com/d", 100));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(
+                        tuple("add", "https://example.com/d"),
+                        tuple("modified", "https://example.com/b"),
+                        tuple("remove", "https://example.com/c"));
+        assertThat(crawl.getAddedCount()).isEqualTo(1);
+        assertThat(crawl.getRemovedCount()).isEqualTo(1);
+        assertThat(crawl.getModifiedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void fingerprintCollisionFallsBackToFullDiff() throws Exception {
+        serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100, "https://example.com/c", 100));
+        Crawl first = crawlService.crawlSite(site);
+        // Colliding fingerprints can't be trusted, the previous URLs have to be compared in full
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(first.getId())),
+                new Update().set("collisions", true), CrawlFingerprints.class);
+        serve(SITEMAP, "v2", urls("https://example.com/a", 100, "https://example.com/b", 200, "https://example.com/d", 100));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        // The full diff compares URLs only, so the newer lastmod of b is not reported
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(
+                        tuple("add", "https://example.com/d"),
+                        tuple("remove", "https://example.com/c"));
+        CrawlFingerprints fingerprints = mongoTemplate.findById(crawl.getId(), CrawlFingerprints.class);
+        assertThat(fingerprints).isNotNull();
+        assertThat(fingerprints.isCollisions()).isFalse();
+    }
+
+    @Test
+    void crawlAboveFingerprintLimitIsFollowedByDiffWithoutModifiedUrls() throws Exception {
+        ReflectionTestUtils.setField(crawlService, "maxFingerprints", 2);
+        try {
+            serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100, "https://example.com/c", 100));
+            Crawl first = crawlService.crawlSite(site);
+            assertThat(mongoTemplate.findById(first.getId(), CrawlFingerprints.class)).isNull();
+            serve(SITEMAP, "v2", urls("https://example.com/a", 100, "https://example.com/b", 200, "https://example.com/d", 100));
+
+            Crawl crawl = crawlService.crawlSite(site);
+
+            // Without stored lastmods the newer lastmod of b can't be detected
+            assertThat(crawlDiffs.find(crawl))
+                    .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                    .containsExactly(
+                            tuple("add", "https://example.com/d"),
+                            tuple("remove", "https://example.com/c"));
+            assertThat(crawl.getModifiedCount()).isZero();
+        } finally {
+            ReflectionTestUtils.setField(crawlService, "maxFingerprints", 1_000_000);
+        }
+    }
+
+    @Test
+    void fingerprintDiffResolvesRemovedUrlsFromDiffChainWithoutHead() throws Exception {
+        serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100));
+        crawlService.crawlSite(site);
+        serve(SITEMAP, "v2", urls("https://example.com/a", 100, "https://example.com/b", 100, "https://example.com/c", 100));
+        crawlService.crawlSite(site);
+        forgetChildStates();
+        urlSetHeads.invalidate(site.getId());
+        serve(SITEMAP, "v3", urls("https://example.com/b", 100, "https://example.com/c", 100));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(tuple("remove", "https://example.com/a"));
+    }
+
+    @Test
+    void incrementalCrawlOnlyDiffsChangedChild() throws Exception {
+        serveIndex("https://example.com/news-1.xml", "https://example.com/news-2.xml");
+        serve("https://example.com/news-1.xml", "n1-v1", urls("https://example.com/old-1", 100, "https://example.com/old-2", 100));
+        serve("https://example.com/news-2.xml", "n2-v1", urls("https://example.com/new-1", 100, "https://example.com/new-2", 100));
+        Crawl first = crawlService.crawlSite(site);
+        serve("https://example.com/news-2.xml", "n2-v2", urls("https://example.com/new-2", 100, "https://example.com/new-3", 100));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(
+                        tuple("add", "https://example.com/new-3"),
+                        tuple("remove", "https://example.com/new-1"));
+        // Only the changed child is written again
+        assertThat(sitemapChildStateRepository.findBySiteId(site.getId()))
+                .extracting(SitemapChildState::getSitemapUrl, SitemapChildState::getCrawlId, SitemapChildState::getDigest)
+                .containsExactlyInAnyOrder(
+                        tuple("https://example.com/news-1.xml", first.getId(), "n1-v1"),
+                        tuple("https://example.com/news-2.xml", crawl.getId(), "n2-v2"));
+    }
+
+    @Test
+    void urlMovedBetweenChildrenIsNoChange() throws Exception {
+        serveIndex("https://example.com/news-1.xml", "https://example.com/news-2.xml");
+        serve("https://example.com/news-1.xml", "n1-v1", urls("https://example.com/a", 100, "https://example.com/b", 100));
+        serve("https://example.com/news-2.xml", "n2-v1", urls("https://example.com/c", 100));
+        crawlService.crawlSite(site);
+        serve("https://example.com/news-1.xml", "n1-v2", urls("https://example.com/a", 100));
+        serve("https://example.com/news-2.xml", "n2-v2", urls("https://example.com/b", 100, "https://example.com/c", 100));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl)).isEmpty();
+    }
+
+    @Test
+    void childDroppedFromIndexRemovesItsUrlsAndState() throws Exception {
+        serveIndex("https://example.com/news-1.xml", "https://example.com/news-2.xml");
+        serve("https://example.com/news-1.xml", "n1-v1", urls("https://example.com/a", 100));
+        serve("https://example.com/news-2.xml", "n2-v1", urls("https://example.com/b", 100, "https://example.com/c", 100));
+        crawlService.crawlSite(site);
+        serveIndex("https://example.com/news-1.xml");
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(
+                        tuple("remove", "https://example.com/b"),
+                        tuple("remove", "https://example.com/c"));
+        assertThat(sitemapChildStateRepository.findBySiteId(site.getId()))
+                .extracting(SitemapChildState::getSitemapUrl)
+                .containsExactly("https://example.com/news-1.xml");
+    }
+
+    @Test
+    void deletingLatestCrawlClearsChildStatesAndNextCrawlDiffsAgainstPreviousOne() throws Exception {
+        serveIndex("https://example.com/news-1.xml", "https://example.com/news-2.xml");
+        serve("https://example.com/news-1.xml", "n1-v1", urls("https://example.com/a", 100));
+        serve("https://example.com/news-2.xml", "n2-v1", urls("https://example.com/b", 100));
+        Crawl first = crawlService.crawlSite(site);
+        serve("https://example.com/news-2.xml", "n2-v2", urls("https://example.com/b", 100, "https://example.com/c", 100));
+        Crawl second = crawlService.crawlSite(site);
+
+        crawlService.deleteCrawl(second.getId(), "userId");
+
+        assertThat(sitemapChildStateRepository.findBySiteId(site.getId())).isEmpty();
+        assertThat(siteRepository.findById(site.getId()).orElseThrow().getCrawlIds()).containsExactly(first.getId());
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        assertThat(crawl.getPrevCrawlId()).isEqualTo(first.getId());
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(tuple("add", "https://example.com/c"));
+        assertThat(sitemapChildStateRepository.findBySiteId(site.getId()))
+                .extracting(SitemapChildState::getCrawlId)
+                .containsOnly(crawl.getId());
+    }
+
+    @Test
+    void incrementalCrawlReportsOnlyLastmodsThatMovedForward() throws Exception {
+        serveIndex("https://example.com/news-1.xml", "https://example.com/news-2.xml");
+        serve("https://example.com/news-1.xml", "n1-v1", urls("https://example.com/x", 100));
+        serve("https://example.com/news-2.xml", "n2-v1", urls(
+                "https://example.com/a", 100, "https://example.com/b", 100, "https://example.com/c", 0));
+        crawlService.crawlSite(site);
+        serve("https://example.com/news-2.xml", "n2-v2", urls(
+                "https://example.com/a", 50, "https://example.com/b", 200, "https://example.com/c", 300));
+
+        Crawl crawl = crawlService.crawlSite(site);
+
+        // An older lastmod and a lastmod that was unknown before are no modification
+        assertThat(crawlDiffs.find(crawl))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(tuple("modified", "https://example.com/b"));
+        assertThat(crawl.getModifiedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void deletingMiddleCrawlMergesModifiedIntoLaterRemoval() throws Exception {
+        serve(SITEMAP, "v1", urls("https://example.com/a", 100, "https://example.com/b", 100));
+        crawlService.crawlSite(site);
+        serve(SITEMAP, "v2", urls("https://example.com/a", 100, "https://example.com/b", 200, "https://example.com/c", 100));
+        Crawl second = crawlService.crawlSite(site);
+        serve(SITEMAP, "v3", urls("https://example.com/a", 300, "https://example.com/c", 100));
+        Crawl third = crawlService.crawlSite(site);
+
+        crawlService.deleteCrawl(second.getId(), "userId");
+
+        assertThat(crawlDiffs.find(crawlRepository.findById(third.getId()).orElseThrow()))
+                .extracting(CrawlDiffItem::getAction, CrawlDiffItem::getUrl)
+                .containsExactly(
+                        tuple("add", "https://example.com/c"),
+                        tuple("modified", "https://example.com/a"),
+                        tuple("remove", "https://example.com/b"));
+    }
+
+    // Without the per-child states of the last crawl, the next crawl diffs the fingerprints of the whole crawl
+    private void forgetChildStates() {
+        sitemapChildStateRepository.deleteBySiteId(site.getId());
+    }
+
+    private void serve(String sitemapUrl, String digest, Map<String, Long> urls) {
+        long[] lastModified = urls.values().stream().mapToLong(Long::longValue).toArray();
+        documents.put(sitemapUrl, new SitemapDocument(new ArrayList<>(urls.keySet()), lastModified, List.of(), false, digest));
+    }
+
+    private void serveIndex(String... childSitemapUrls) {
+        documents.put(SITEMAP, new SitemapDocument(List.of(), new long[0], List.of(childSitemapUrls), false, String.join(",", childSitemapUrls)));
+    }
+
+    private static Map<String, Long> urls(Object... urlsAndLastModified) {
+        Map<String, Long> urls = new LinkedHashMap<>();
+        for (int i = 0; i < urlsAndLastModified.length; i += 2) {
+            urls.put((String) urlsAndLastModified[i], ((Number) urlsAndLastModified[i + 1]).longValue());
+        }
+        return urls;
+    }
+}
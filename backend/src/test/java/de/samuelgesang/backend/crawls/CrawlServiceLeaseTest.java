@@ -0,0 +1,175 @@
+package de.samuelgesang.backend.crawls;
+
+import de.samuelgesang.backend.crawl_fingerprint.CrawlFingerprintsRepository;
+import de.samuelgesang.backend.exceptions.CrawlInProgressException;
+import de.samuelgesang.backend.exceptions.SitemapException;
+import de.samuelgesang.backend.sitemap_child_state.SitemapChildStateRepository;
+import de.samuelgesang.backend.sitemaps.SitemapService;
+import de.samuelgesang.backend.sites.Site;
+import de.samuelgesang.backend.sites.SiteRepository;
+import de.samuelgesang.backend.url_chunk.UrlChunkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CrawlServiceLeaseTest {
+
+    private CrawlRepository crawlRepository;
+    private SiteRepository siteRepository;
+    private CrawlLeaseStore crawlLeases;
+    private MongoTemplate mongoTemplate;
+    private CrawlService crawlService;
+    private Site site;
+
+    @BeforeEach
+    void setUp() {
+        crawlRepository = Mockito.mock(CrawlRepository.class);
+        siteRepository = Mockito.mock(SiteRepository.class);
+        crawlLeases = Mockito.mock(CrawlLeaseStore.class);
+        mongoTemplate = Mockito.mock(MongoTemplate.class);
+        crawlService = new CrawlService(crawlRepository, Mockito.mock(UrlChunkRepository.class), Mockito.mock(SitemapService.class),
+                siteRepository, mongoTemplate, Mockito.mock(CrawlFingerprintsRepository.class),
+                Mockito.mock(SitemapChildStateRepository.class), Mockito.mock(UrlSetHeadStore.class),
+                Mockito.mock(CrawlDiffStore.class), crawlLeases);
+
+        site = new Site();
+        site.setId("siteId");
+        site.setName("Test Site");
+        site.setSitemap("https://example.com/sitemap.xml");
+        site.setCrawlIds(List.of("crawl1"));
+    }
+
+    @Test
+    void createMissingSnapshotsSkipsCoveredChainWithoutLease() {
+        site.setCrawlIds(List.of("crawl1", "crawl2"));
+        when(siteRepository.findById("siteId")).thenReturn(Optional.of(site));
+        mockCrawl("crawl1", false);
+        mockCrawl("crawl2", false);
+
+        assertThat(crawlService.createMissingSnapshots(site)).isTrue();
+
+        verifyNoInteractions(crawlLeases);
+    }
+
+    @Test
+    void createMissingSnapshotsSkipsSiteWhileLeaseIsHeld() {
+        ReflectionTestUtils.setField(crawlService, "snapshotInterval", 1);
+        site.setCrawlIds(List.of("crawl1", "crawl2"));
+        when(siteRepository.findById("siteId")).thenReturn(Optional.of(site));
+        mockCrawl("crawl1", false);
+        mockCrawl("crawl2", false);
+        when(crawlLeases.tryAcquire("siteId")).thenReturn(null);
+
+        assertThat(crawlService.createMissingSnapshots(site)).isFalse();
+
+        verifyNoInteractions(mongoTemplate);
+        verify(crawlLeases, never()).release(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void createMissingSnapshotsReplaysFromLatestSnapshotAndReleasesLease() {
+        ReflectionTestUtils.setField(crawlService, "snapshotInterval", 2);
+        site.setCrawlIds(List.of("crawl1", "crawl2", "crawl3", "crawl4"));
+        when(siteRepository.findById("siteId")).thenReturn(Optional.of(site));
+        mockCrawl("crawl2", true);
+        mockCrawl("crawl3", false);
+        mockCrawl("crawl4", false);
+        when(crawlLeases.tryAcquire("siteId")).thenReturn("owner");
+
+        assertThat(crawlService.createMissingSnapshots(site)).isTrue();
+
+        verify(crawlRepository, never()).findById("crawl1");
+        verify(mongoTemplate).updateFirst(Mockito.eq(Query.query(Criteria.where("_id").is("crawl4"))), Mockito.any(Update.class), Mockito.eq(Crawl.class));
+        verify(crawlLeases).release("siteId", "owner");
+    }
+
+    @Test
+    void crawlSiteFailsWhileLeaseIsHeldElsewhere() {
+        when(crawlLeases.tryAcquire("siteId")).thenReturn(null);
+
+        assertThrows(CrawlInProgressException.class, () -> crawlService.crawlSite(site));
+
+        verifyNoInteractions(siteRepository, crawlRepository);
+        verify(crawlLeases, never()).release(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void crawlSiteReleasesLeaseWhenCrawlFails() {
+        when(crawlLeases.tryAcquire("siteId")).thenReturn("owner");
+        when(siteRepository.findById("siteId")).thenReturn(Optional.empty());
+
+        assertThrows(SitemapException.class, () -> crawlService.crawlSite(site));
+
+        verify(crawlLeases).release("siteId", "owner");
+    }
+
+    @Test
+    void crawlSiteJoinsRunningCrawlOfSameSite() throws InterruptedException {
+        CountDownLatch crawlStarted = new CountDownLatch(1);
+        CountDownLatch finishCrawl = new CountDownLatch(1);
+        when(crawlLeases.tryAcquire("siteId")).thenReturn("owner");
+        when(siteRepository.findById("siteId")).thenAnswer(invocation -> {
+            crawlStarted.countDown();
+            finishCrawl.await();
+            return Optional.empty();
+        });
+
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        AtomicReference<Throwable> joinedFailure = new AtomicReference<>();
+        Thread first = Thread.ofPlatform().start(() -> firstFailure.set(catchThrowable(() -> crawlService.crawlSite(site))));
+        crawlStarted.await();
+        Thread joined = Thread.ofPlatform().start(() -> joinedFailure.set(catchThrowable(() -> crawlService.crawlSite(site))));
+        // The joined request waits on the running crawl instead of taking the lease itself
+        while (joined.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        finishCrawl.countDown();
+        first.join();
+        joined.join();
+
+        assertThat(firstFailure.get()).isInstanceOf(SitemapException.class);
+        assertThat(joinedFailure.get()).isSameAs(firstFailure.get());
+        verify(crawlLeases, times(1)).tryAcquire("siteId");
+        verify(crawlLeases).release("siteId", "owner");
+    }
+
+    private static Throwable catchThrowable(CrawlCall call) {
+        try {
+            call.run();
+            return null;
+        } catch (Throwable e) {
+            return e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CrawlCall {
+        void run() throws Exception;
+    }
+
+    private void mockCrawl(String crawlId, boolean snapshot) {
+        Crawl crawl = new Crawl();
+        crawl.setId(crawlId);
+        crawl.setSiteId("siteId");
+        crawl.setSnapshot(snapshot);
+        when(crawlRepository.findById(crawlId)).thenReturn(Optional.of(crawl));
+    }
+}
@@ -1,5 +1,6 @@
 package de.samuelgesang.backend.crawls;
 
+import de.samuelgesang.backend.exceptions.UnauthorizedAccessException;
 import de.samuelgesang.backend.sites.Site;
 import de.samuelgesang.backend.url_chunk.UpdateUrlStatusDTO;
 import de.samuelgesang.backend.sites.SiteRepository;
@@ -35,6 +36,7 @@ class CrawlServiceTest {
     void setUp() {
         site = new Site();
         site.setId("siteId");
+        site.setUserId("userId");
         site.setName("Test Site");
         site.setBaseURL("https://example.com");
         site.setSitemap("https://example.com/sitemap.xml");
@@ -43,23 +45,36 @@ class CrawlServiceTest {
         crawl = new Crawl();
         crawl.setId("crawlId");
         crawl.setSiteId(site.getId());
-        crawl.setDiffToPrevCrawl(new ArrayList<>());
     }
 
 
     @Test
     void updateUrlCheckedStatusUrlNotFound() {
         when(crawlRepository.findById(any(String.class))).thenReturn(Optional.of(crawl));
+        when(siteRepository.findById(any(String.class))).thenReturn(Optional.of(site));
 
         UpdateUrlStatusDTO updateUrlStatusDTO = new UpdateUrlStatusDTO();
         updateUrlStatusDTO.setUrl("https://nonexistent-url.com");
         updateUrlStatusDTO.setChecked(true);
 
-        Crawl result = crawlService.updateUrlCheckedStatus("crawlId", updateUrlStatusDTO);
+        CrawlDiffCheckResultDTO result = crawlService.updateUrlCheckedStatus("crawlId", "userId", updateUrlStatusDTO);
 
         assertNull(result);
     }
 
+    @Test
+    void updateUrlCheckedStatusUnauthorized() {
+        when(crawlRepository.findById(any(String.class))).thenReturn(Optional.of(crawl));
+        when(siteRepository.findById(any(String.class))).thenReturn(Optional.of(site));
+
+        UpdateUrlStatusDTO updateUrlStatusDTO = new UpdateUrlStatusDTO();
+        updateUrlStatusDTO.setUrl("https://example.com/");
+        updateUrlStatusDTO.setChecked(true);
+
+        assertThrows(UnauthorizedAccessException.class,
+                () -> crawlService.updateUrlCheckedStatus("crawlId", "unauthorizedUserId", updateUrlStatusDTO));
+    }
+
     @Test
     void deleteCrawlUnauthorized() {
         when(crawlRepository.findById(any(String.class))).thenReturn(Optional.of(crawl));
@@ -0,0 +1,36 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CrawlTest {
+
+    @Test
+    void countsAreTakenFromEmbeddedDiffUntilMigrated() {
+        Crawl crawl = new Crawl();
+        crawl.setLegacyDiff(List.of(
+                CrawlDiffItem.of("add", "https://example.com/a"),
+                CrawlDiffItem.of("add", "https://example.com/b"),
+                CrawlDiffItem.of("remove", "https://example.com/c"),
+                CrawlDiffItem.of("modified", "https://example.com/d")));
+
+        assertThat(crawl.getAddedCount()).isEqualTo(2);
+        assertThat(crawl.getRemovedCount()).isEqualTo(1);
+        assertThat(crawl.getModifiedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void countsAreStoredOnceMigrated() {
+        Crawl crawl = new Crawl();
+        crawl.setAddedCount(3);
+        crawl.setRemovedCount(2);
+        crawl.setModifiedCount(1);
+
+        assertThat(crawl.getAddedCount()).isEqualTo(3);
+        assertThat(crawl.getRemovedCount()).isEqualTo(2);
+        assertThat(crawl.getModifiedCount()).isEqualTo(1);
+    }
+}
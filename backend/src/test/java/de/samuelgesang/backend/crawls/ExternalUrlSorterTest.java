@@ -0,0 +1,46 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExternalUrlSorterTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void sortedMergesSpilledRunsInCompactSetOrder() throws IOException {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            urls.add("https://example.com/" + (i * 7919 % 3_000) + (i % 2 == 0 ? "/ä" : "/z"));
+        }
+
+        List<String> sorted = new ArrayList<>();
+        try (ExternalUrlSorter sorter = new ExternalUrlSorter(16 * 1024, tempDirectory)) {
+            for (String url : urls) {
+                sorter.add(url);
+            }
+            assertThat(sorter.getRunCount()).isGreaterThan(1);
+
+            Iterator<byte[]> keys = sorter.sorted();
+            while (keys.hasNext()) {
+                sorted.add(CompactUrlSet.decode(keys.next()));
+            }
+        }
+
+        assertThat(sorted).containsExactlyElementsOf(CompactUrlSet.copyOf(urls));
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FingerprintTableTest {
+
+    @Test
+    void ofSortsFingerprintsAndKeepsTheLatestLastModifiedOfDuplicates() {
+        FingerprintTable table = FingerprintTable.of(List.of("/b", "/a", "/b"), new long[]{100, 0, 200});
+
+        assertThat(table.size()).isEqualTo(2);
+        assertThat(table.fingerprints()).isSorted();
+        FingerprintTable older = FingerprintTable.of(List.of("/a", "/b"), new long[]{0, 150});
+        assertThat(table.modifiedSince(older)).containsExactly(hash("/b"));
+    }
+
+    @Test
+    void modifiedSinceIgnoresUnknownAndOlderLastModified() {
+        FingerprintTable previous = FingerprintTable.of(List.of("/a", "/b", "/c", "/d"), new long[]{100, 0, 300, 100});
+        FingerprintTable current = FingerprintTable.of(List.of("/a", "/b", "/c", "/e"), new long[]{200, 200, 100, 500});
+
+        assertThat(current.modifiedSince(previous)).containsExactly(hash("/a"));
+    }
+
+    @Test
+    void unionAndPackingKeepLastModified() {
+        FingerprintTable first = FingerprintTable.of(List.of("/a", "/b"), new long[]{100, 100});
+        FingerprintTable second = FingerprintTable.of(List.of("/b", "/c"), new long[]{300, 4_000_000_000L});
+        FingerprintTable union = FingerprintTable.union(List.of(first, second));
+
+        FingerprintTable unpacked = FingerprintTable.unpack(union.packFingerprints(), union.packLastModified());
+        assertThat(unpacked.size()).isEqualTo(3);
+        assertThat(unpacked.sameAs(union)).isTrue();
+        assertThat(unpacked.sameAs(FingerprintTable.unpack(union.packFingerprints(), null))).isFalse();
+        assertThat(union.modifiedSince(first)).containsExactly(hash("/b"));
+    }
+
+    private static long hash(String url) {
+        return UrlFingerprints.hash(url.getBytes(StandardCharsets.UTF_8));
+    }
+}
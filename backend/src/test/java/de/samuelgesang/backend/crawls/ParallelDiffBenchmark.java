@@ -0,0 +1,49 @@
+package de.samuelgesang.backend.crawls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the sequential and the range-partitioned diff of {@link UrlSetDiff}. Not part of the test suite,
+ * run the main method manually. Each size has 5% removed and 5% added URLs.
+ */
+public class ParallelDiffBenchmark {
+
+    private static final int[] SIZES = {50_000, 100_000, 200_000, 400_000, 1_000_000};
+    private static final int PARTITIONS = 16;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        System.out.printf("common pool parallelism: %d%n", ForkJoinPool.getCommonPoolParallelism());
+        System.out.printf("%10s %10s %16s %16s%n", "urls", "diff", "sequential (ms)", "parallel (ms)");
+        for (int size : SIZES) {
+            CompactUrlSet previous = CompactUrlSet.copyOf(urls(0, size));
+            CompactUrlSet current = CompactUrlSet.copyOf(urls(size / 20, size + size / 20));
+
+            long sequentialMillis = Long.MAX_VALUE;
+            long parallelMillis = Long.MAX_VALUE;
+            int diffSize = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                sequentialMillis = Math.min(sequentialMillis, time(() -> UrlSetDiff.diff(current, previous, 1)));
+                parallelMillis = Math.min(parallelMillis, time(() -> UrlSetDiff.diff(current, previous, PARTITIONS)));
+                diffSize = UrlSetDiff.diff(current, previous, 1).size();
+            }
+            System.out.printf("%10d %10d %16d %16d%n", size, diffSize, sequentialMillis, parallelMillis);
+        }
+    }
+
+    private static long time(Runnable diff) {
+        long start = System.nanoTime();
+        diff.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static List<String> urls(int from, int to) {
+        List<String> urls = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            urls.add("https://example.com/category-" + (i % 50) + "/page-" + i);
+        }
+        return urls;
+    }
+}
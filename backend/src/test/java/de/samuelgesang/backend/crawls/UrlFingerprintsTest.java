@@ -0,0 +1,35 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UrlFingerprintsTest {
+
+    @Test
+    void hashMatchesMurmur3ReferenceValues() {
+        assertThat(UrlFingerprints.hash("hello".getBytes(StandardCharsets.UTF_8))).isEqualTo(0xcbd8a7b341bd9b02L);
+        assertThat(UrlFingerprints.hash("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)))
+                .isEqualTo(0xe34bbc7bbc071b6cL);
+    }
+
+    @Test
+    void fingerprintsSurvivePacking() {
+        long[] fingerprints = {Long.MIN_VALUE, -1, 0, 42, Long.MAX_VALUE};
+
+        assertThat(UrlFingerprints.unpack(UrlFingerprints.pack(fingerprints))).containsExactly(fingerprints);
+    }
+
+    @Test
+    void differenceKeepsFingerprintsMissingFromTheOtherSet() {
+        assertThat(UrlFingerprints.difference(new long[]{-5, 1, 3, 9}, new long[]{-5, 2, 3})).containsExactly(1, 9);
+    }
+
+    @Test
+    void unionMergesDistinctFingerprints() {
+        assertThat(UrlFingerprints.union(List.of(new long[]{1, 4}, new long[]{}, new long[]{-2, 1, 9}))).containsExactly(-2, 1, 4, 9);
+    }
+}
@@ -0,0 +1,71 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UrlSetChunkerTest {
+
+    private final UrlSetChunker chunker = new UrlSetChunker(20_000);
+
+    @Test
+    void splitKeepsAllUrlsInOrder() {
+        CompactUrlSet urls = urls(50_000);
+        List<String> joined = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+
+        chunker.split(urls, (chunk, contentId) -> {
+            joined.addAll(chunk);
+            sizes.add(chunk.size());
+        });
+
+        assertThat(joined).containsExactlyElementsOf(urls);
+        assertThat(sizes).hasSizeGreaterThan(10);
+    }
+
+    @Test
+    void splitReusesChunksAroundSmallChanges() {
+        CompactUrlSet urls = urls(50_000);
+        List<Long> before = contentIds(urls);
+
+        CompactUrlSet changed = urls(50_000);
+        changed.add("https://example.com/news/article-25000-update");
+        changed.remove("https://example.com/news/article-10000");
+        changed.compact();
+        List<Long> after = contentIds(changed);
+
+        Set<Long> reused = new HashSet<>(before);
+        reused.retainAll(after);
+        assertThat(after.size() - reused.size()).isBetween(1, 4);
+    }
+
+    @Test
+    void splitReportsEqualContentIdsForEqualSets() {
+        assertThat(contentIds(urls(10_000))).isEqualTo(contentIds(urls(10_000)));
+    }
+
+    @Test
+    void splitOfEmptySetReportsNoChunks() {
+        assertThat(contentIds(new CompactUrlSet())).isEmpty();
+    }
+
+    private List<Long> contentIds(CompactUrlSet urls) {
+        List<Long> contentIds = new ArrayList<>();
+        chunker.split(urls, (chunk, contentId) -> contentIds.add(contentId));
+        return contentIds;
+    }
+
+    private static CompactUrlSet urls(int count) {
+        CompactUrlSet urls = new CompactUrlSet();
+        for (int i = 0; i < count; i++) {
+            urls.add("https://example.com/news/article-" + i);
+        }
+        urls.compact();
+        return urls;
+    }
+}
@@ -0,0 +1,52 @@
+package de.samuelgesang.backend.crawls;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UrlSetDiffTest {
+
+    @Test
+    void parallelDiffMatchesSequentialDiff() {
+        Random random = new Random(42);
+        List<String> previousUrls = new ArrayList<>();
+        List<String> currentUrls = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            String url = "https://example.com/section-" + random.nextInt(40) + "/page-" + i;
+            if (random.nextInt(10) > 0) {
+                previousUrls.add(url);
+            }
+            if (random.nextInt(10) > 0) {
+                currentUrls.add(url);
+            }
+        }
+        CompactUrlSet current = CompactUrlSet.copyOf(currentUrls);
+        CompactUrlSet previous = CompactUrlSet.copyOf(previousUrls);
+        // Pending changes have to be picked up by the range iterators as well
+        current.add("https://example.com/section-7/new");
+        previous.add("https://example.com/section-3/old");
+
+        List<CrawlDiffItem> sequential = UrlSetDiff.diff(current, previous, 1);
+        List<CrawlDiffItem> parallel = UrlSetDiff.diff(current, previous, 16);
+
+        assertThat(describe(parallel)).containsExactlyElementsOf(describe(sequential));
+        assertThat(describe(sequential)).contains("add https://example.com/section-7/new", "remove https://example.com/section-3/old");
+    }
+
+    @Test
+    void parallelDiffHandlesEmptySets() {
+        CompactUrlSet urls = CompactUrlSet.copyOf(List.of("https://example.com/a", "https://example.com/b"));
+
+        assertThat(UrlSetDiff.diff(urls, new CompactUrlSet(), 8)).extracting(CrawlDiffItem::getAction).containsExactly("add", "add");
+        assertThat(UrlSetDiff.diff(new CompactUrlSet(), urls, 8)).extracting(CrawlDiffItem::getAction).containsExactly("remove", "remove");
+        assertThat(UrlSetDiff.diff(new CompactUrlSet(), new CompactUrlSet(), 8)).isEmpty();
+    }
+
+    private static List<String> describe(List<CrawlDiffItem> diff) {
+        return diff.stream().map(item -> item.getAction() + " " + item.getUrl()).toList();
+    }
+}
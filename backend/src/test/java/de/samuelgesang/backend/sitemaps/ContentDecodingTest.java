@@ -0,0 +1,89 @@
+package de.samuelgesang.backend.sitemaps;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ContentDecodingTest {
+
+    private static final String SITEMAP = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+              <url><loc>https://example.com/</loc></url>
+            </urlset>
+            """;
+
+    @Test
+    void decodeGzip() throws IOException {
+        assertThat(decode(gzip(bytes(SITEMAP)), "gzip")).isEqualTo(SITEMAP);
+        assertThat(decode(gzip(bytes(SITEMAP)), "x-gzip")).isEqualTo(SITEMAP);
+    }
+
+    @Test
+    void decodeZlibWrappedAndRawDeflate() throws IOException {
+        assertThat(decode(deflate(bytes(SITEMAP), false), "deflate")).isEqualTo(SITEMAP);
+        assertThat(decode(deflate(bytes(SITEMAP), true), "deflate")).isEqualTo(SITEMAP);
+    }
+
+    @Test
+    void decodeMultipleEncodingsInReverseOrder() throws IOException {
+        byte[] body = gzip(deflate(bytes(SITEMAP), false));
+
+        assertThat(decode(body, "deflate, gzip")).isEqualTo(SITEMAP);
+    }
+
+    @Test
+    void decodeGzipFileByMagicBytes() throws IOException {
+        // A sitemap.xml.gz served without Content-Encoding, as well as one that was compressed twice
+        assertThat(decode(gzip(bytes(SITEMAP)), null)).isEqualTo(SITEMAP);
+        assertThat(decode(gzip(gzip(bytes(SITEMAP))), "gzip")).isEqualTo(SITEMAP);
+    }
+
+    @Test
+    void decodeLeavesPlainBodyUntouched() throws IOException {
+        assertThat(decode(bytes(SITEMAP), null)).isEqualTo(SITEMAP);
+        assertThat(decode(bytes(SITEMAP), "identity")).isEqualTo(SITEMAP);
+        assertThat(decode(new byte[0], null)).isEmpty();
+    }
+
+    @Test
+    void decodeRejectsUnsupportedEncoding() {
+        assertThrows(IOException.class, () -> decode(bytes(SITEMAP), "br"));
+    }
+
+    private static String decode(byte[] body, String contentEncoding) throws IOException {
+        try (InputStream in = ContentDecoding.decode(new ByteArrayInputStream(body), contentEncoding)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            deflate.write(content);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+package de.samuelgesang.backend.sitemaps;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HostRateLimiterTest {
+
+    @Test
+    void acquirePacesRequestsAfterBurst() throws InterruptedException {
+        HostRateLimiter limiter = limiter(10, 4, 2, "");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("example.com").close();
+        }
+
+        // Two requests from the burst, the other three wait 100 ms for a token each
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(250));
+    }
+
+    @Test
+    void acquireDoesNotPaceOtherHosts() throws InterruptedException {
+        HostRateLimiter limiter = limiter(1, 4, 1, "");
+        limiter.acquire("example.com").close();
+
+        long start = System.nanoTime();
+        limiter.acquire("other.org").close();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+    }
+
+    @Test
+    void acquireReturnsNullWhenNoSlotFreesUpBeforeDeadline() throws InterruptedException {
+        HostRateLimiter limiter = limiter(100, 4, 4, "example.com=100/1");
+
+        try (HostRateLimiter.Permit permit = limiter.acquire("example.com")) {
+            assertThat(permit).isNotNull();
+            assertThat(limiter.acquire("example.com", Instant.now().plusMillis(100))).isNull();
+        }
+        assertThat(limiter.acquire("example.com", Instant.now().plusMillis(100))).isNotNull();
+    }
+
+    @Test
+    void acquireReturnsNullWhenTokenIsDueAfterDeadline() throws InterruptedException {
+        HostRateLimiter limiter = limiter(0.5, 4, 1, "");
+        limiter.acquire("example.com").close();
+
+        long start = System.nanoTime();
+        assertThat(limiter.acquire("example.com", Instant.now().plusMillis(200))).isNull();
+
+        // The wait is known up front, so it fails right away instead of sleeping until the deadline
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(150));
+    }
+
+    @Test
+    void backOffPausesHost() throws InterruptedException {
+        HostRateLimiter limiter = limiter(100, 4, 4, "");
+
+        assertThat(limiter.backOff("example.com", "2")).isEqualTo(Duration.ofSeconds(2));
+        assertThat(limiter.acquire("example.com", Instant.now().plusMillis(500))).isNull();
+        assertThat(limiter.acquire("other.org", Instant.now().plusMillis(500))).isNotNull();
+    }
+
+    @Test
+    void backOffRejectsRetryAfterAboveMaximum() {
+        HostRateLimiter limiter = limiter(100, 4, 4, "");
+
+        assertThat(limiter.backOff("example.com", "3600")).isNull();
+        assertThat(limiter.backOff("example.com", "not a date")).isEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void hostWithPermitInFlightIsNotEvicted() throws InterruptedException {
+        HostRateLimiter limiter = new HostRateLimiter(100, 1, 4, Duration.ofSeconds(10), "", Duration.ZERO, 1);
+
+        try (HostRateLimiter.Permit permit = limiter.acquire("example.com")) {
+            assertThat(permit).isNotNull();
+            // Both the host limit and the idle TTL would evict example.com if it was unused
+            limiter.acquire("other.org").close();
+            limiter.acquire("third.net").close();
+
+            assertThat(limiter.acquire("example.com", Instant.now().plusMillis(100))).isNull();
+        }
+        assertThat(limiter.acquire("example.com", Instant.now().plusMillis(100))).isNotNull();
+    }
+
+    @Test
+    void pausedHostIsNotEvicted() throws InterruptedException {
+        HostRateLimiter limiter = new HostRateLimiter(100, 4, 4, Duration.ofSeconds(10), "", Duration.ZERO, 1);
+
+        limiter.backOff("example.com", "2");
+        limiter.acquire("other.org").close();
+        limiter.acquire("third.net").close();
+
+        assertThat(limiter.acquire("example.com", Instant.now().plusMillis(500))).isNull();
+    }
+
+    @Test
+    void closingPermitTwiceReleasesOneSlot() throws InterruptedException {
+        HostRateLimiter limiter = limiter(100, 4, 4, "example.com=100/1");
+
+        HostRateLimiter.Permit permit = limiter.acquire("example.com");
+        permit.close();
+        permit.close();
+
+        try (HostRateLimiter.Permit next = limiter.acquire("example.com")) {
+            assertThat(next).isNotNull();
+            assertThat(limiter.acquire("example.com", Instant.now().plusMillis(100))).isNull();
+        }
+    }
+
+    private static HostRateLimiter limiter(double requestsPerSecond, int maxInFlight, int burst, String hostOverrides) {
+        return new HostRateLimiter(requestsPerSecond, maxInFlight, burst, Duration.ofSeconds(10), hostOverrides,
+                Duration.ofMinutes(10), 100);
+    }
+}
@@ -0,0 +1,223 @@
+package de.samuelgesang.backend.sitemaps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import de.samuelgesang.backend.exceptions.SitemapBudgetExceededException;
+import de.samuelgesang.backend.exceptions.SitemapException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SitemapFetcherTest {
+
+    private HttpServer server;
+    private HttpClient httpClient;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        httpClient = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        httpClient.shutdownNow();
+    }
+
+    @Test
+    void fetchReadsBody() throws SitemapException {
+        handle("/robots.txt", exchange -> respond(exchange, 200, "Sitemap: https://example.com/sitemap.xml"));
+
+        String body = fetcher(Duration.ofSeconds(5)).fetch(uri("/robots.txt"), SitemapFetcherTest::readString);
+
+        assertThat(body).isEqualTo("Sitemap: https://example.com/sitemap.xml");
+    }
+
+    @Test
+    void fetchFailsWhenBodyStalls() {
+        handle("/sitemap.xml", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("<urlset>".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(Duration.ofSeconds(10));
+            exchange.close();
+        });
+        SitemapFetcher fetcher = fetcher(Duration.ofMillis(300));
+
+        long start = System.nanoTime();
+        assertThrows(SitemapException.class, () -> fetcher.fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void fetchStopsStalledBodyAtDeadline() {
+        handle("/sitemap.xml", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("<urlset>".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(Duration.ofSeconds(10));
+            exchange.close();
+        });
+        SitemapFetcher fetcher = fetcher(Duration.ofSeconds(30));
+        SitemapLimits limits = new SitemapLimits(Long.MAX_VALUE, Instant.now().plusMillis(500));
+
+        long start = System.nanoTime();
+        assertThrows(SitemapBudgetExceededException.class,
+                () -> fetcher.fetch(uri("/sitemap.xml"), null, null, limits, SitemapFetcherTest::readString));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void fetchDecodesGzipContentEncoding() throws IOException, SitemapException {
+        byte[] compressed = gzip("<urlset/>");
+        handle("/sitemap.xml", exchange -> {
+            assertThat(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(compressed);
+            }
+        });
+
+        String body = fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString);
+
+        assertThat(body).isEqualTo("<urlset/>");
+    }
+
+    @Test
+    void fetchReturnsNotModifiedForConditionalRequest() throws SitemapException {
+        handle("/sitemap.xml", exchange -> {
+            assertThat(exchange.getRequestHeaders().getFirst("If-None-Match")).isEqualTo("\"v1\"");
+            assertThat(exchange.getRequestHeaders().getFirst("If-Modified-Since")).isEqualTo("Tue, 01 Oct 2024 10:00:00 GMT");
+            respond(exchange, 304, "");
+        });
+
+        SitemapResponse<String> response = fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"),
+                "\"v1\"", "Tue, 01 Oct 2024 10:00:00 GMT", SitemapLimits.NONE, SitemapFetcherTest::readString);
+
+        assertThat(response.notModified()).isTrue();
+        assertThat(response.body()).isNull();
+        assertThat(response.etag()).isEqualTo("\"v1\"");
+    }
+
+    @Test
+    void fetchRejectsNotModifiedWithoutValidators() {
+        handle("/sitemap.xml", exchange -> respond(exchange, 304, ""));
+
+        assertThrows(SitemapException.class,
+                () -> fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString));
+    }
+
+    @Test
+    void fetchRetriesAfterTooManyRequests() throws SitemapException {
+        AtomicInteger requests = new AtomicInteger();
+        handle("/sitemap.xml", exchange -> {
+            if (requests.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "");
+            } else {
+                respond(exchange, 200, "<urlset/>");
+            }
+        });
+
+        long start = System.nanoTime();
+        String body = fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString);
+
+        assertThat(body).isEqualTo("<urlset/>");
+        assertThat(requests).hasValue(2);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+    }
+
+    @Test
+    void fetchGivesUpAfterRepeatedServiceUnavailable() {
+        AtomicInteger requests = new AtomicInteger();
+        handle("/sitemap.xml", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            respond(exchange, 503, "");
+        });
+
+        assertThrows(SitemapException.class,
+                () -> fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString));
+        assertThat(requests).hasValue(3);
+    }
+
+    @Test
+    void fetchDoesNotRetryWhenRetryAfterIsTooLong() {
+        AtomicInteger requests = new AtomicInteger();
+        handle("/sitemap.xml", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "3600");
+            respond(exchange, 503, "");
+        });
+
+        assertThrows(SitemapException.class,
+                () -> fetcher(Duration.ofSeconds(5)).fetch(uri("/sitemap.xml"), SitemapFetcherTest::readString));
+        assertThat(requests).hasValue(1);
+    }
+
+    private SitemapFetcher fetcher(Duration readTimeout) {
+        return new SitemapFetcher(httpClient, new HostRateLimiter(100, 4, 4, Duration.ofSeconds(5), "", Duration.ofMinutes(10), 100), readTimeout);
+    }
+
+    private void handle(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static String readString(InputStream body) throws IOException {
+        return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
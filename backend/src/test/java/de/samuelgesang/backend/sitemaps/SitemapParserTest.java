@@ -0,0 +1,106 @@
+package de.samuelgesang.backend.sitemaps;
+
+import de.samuelgesang.backend.exceptions.SitemapException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SitemapParserTest {
+
+    private final SitemapParser sitemapParser = new SitemapParser();
+
+    private final List<String> urls = new ArrayList<>();
+    private final List<String> sitemaps = new ArrayList<>();
+
+    @Test
+    void parseUrlsetWithCdataAndEntities() throws IOException, SitemapException {
+        parse("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9"
+                        xmlns:image="http://www.google.com/schemas/sitemap-image/1.1">
+                  <url><loc> https://example.com/ </loc></url>
+                  <url><loc><![CDATA[https://example.com/a?b=1&c=2]]></loc></url>
+                  <url>
+                    <loc>https://example.com/search?q=x&amp;page=2</loc>
+                    <image:image><image:loc>https://example.com/image.png</image:loc></image:image>
+                  </url>
+                </urlset>
+                """);
+
+        assertThat(urls).containsExactly(
+                "https://example.com/",
+                "https://example.com/a?b=1&c=2",
+                "https://example.com/search?q=x&page=2");
+        assertThat(sitemaps).isEmpty();
+    }
+
+    @Test
+    void parseSitemapIndexWithPrefixedNamespace() throws IOException, SitemapException {
+        parse("""
+                <sm:sitemapindex xmlns:sm="http://www.sitemaps.org/schemas/sitemap/0.9">
+                  <sm:sitemap><sm:loc>https://example.com/sitemap-1.xml</sm:loc></sm:sitemap>
+                  <sm:sitemap><sm:loc>https://example.com/sitemap-2.xml</sm:loc><sm:lastmod>2024-01-01</sm:lastmod></sm:sitemap>
+                </sm:sitemapindex>
+                """);
+
+        assertThat(urls).isEmpty();
+        assertThat(sitemaps).containsExactly("https://example.com/sitemap-1.xml", "https://example.com/sitemap-2.xml");
+    }
+
+    @Test
+    void parseReportsLastModifiedBeforeOrAfterLoc() throws IOException, SitemapException {
+        List<Long> lastModified = new ArrayList<>();
+        sitemapParser.parse(new ByteArrayInputStream("""
+                <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+                  <url><loc>https://example.com/a</loc><lastmod>2024-01-02</lastmod></url>
+                  <url><lastmod>2024-01-02T10:30:00+01:00</lastmod><loc>https://example.com/b</loc></url>
+                  <url><loc>https://example.com/c</loc><lastmod>yesterday</lastmod></url>
+                </urlset>
+                """.getBytes(StandardCharsets.UTF_8)), new SitemapListener() {
+            @Override
+            public void onUrl(String loc, long lastModifiedSeconds) {
+                urls.add(loc);
+                lastModified.add(lastModifiedSeconds);
+            }
+
+            @Override
+            public void onSitemap(String loc) {
+                sitemaps.add(loc);
+            }
+        });
+
+        assertThat(urls).containsExactly("https://example.com/a", "https://example.com/b", "https://example.com/c");
+        assertThat(lastModified).containsExactly(1704153600L, 1704187800L, SitemapListener.UNKNOWN_LAST_MODIFIED);
+    }
+
+    @Test
+    void parseLastModifiedAcceptsW3cDatetimePrecisions() {
+        assertThat(SitemapParser.parseLastModified("2024")).isEqualTo(1704067200L);
+        assertThat(SitemapParser.parseLastModified("2024-02")).isEqualTo(1706745600L);
+        assertThat(SitemapParser.parseLastModified("2024-01-01T00:00Z")).isEqualTo(1704067200L);
+        assertThat(SitemapParser.parseLastModified("2024-01-01T00:00:00.123Z")).isEqualTo(1704067200L);
+        assertThat(SitemapParser.parseLastModified("")).isEqualTo(SitemapListener.UNKNOWN_LAST_MODIFIED);
+    }
+
+    @Test
+    void parseRejectsHtml() {
+        assertThrows(SitemapException.class, () -> parse("<html><body><p>Not found</p></body></html>"));
+    }
+
+    @Test
+    void parseRejectsMalformedXml() {
+        assertThrows(SitemapException.class, () -> parse("<!DOCTYPE html><html><body><br></body>"));
+    }
+
+    private void parse(String content) throws IOException, SitemapException {
+        sitemapParser.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+                SitemapListener.of(urls::add, sitemaps::add));
+    }
+}
@@ -0,0 +1,125 @@
+package de.samuelgesang.backend.sitemaps;
+
+import de.samuelgesang.backend.exceptions.SitemapException;
+import de.samuelgesang.backend.sitemap_cache.SitemapCacheEntry;
+import de.samuelgesang.backend.sitemap_cache.SitemapCacheRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+
+class SitemapServiceTest {
+
+    private static final String SITEMAP = "<?xml version=\"1.0\"?><urlset/>";
+
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    private final Map<String, Duration> delays = new ConcurrentHashMap<>();
+    private final SitemapParser sitemapParser = Mockito.spy(new SitemapParser());
+    private final SitemapCacheRepository sitemapCacheRepository = Mockito.mock(SitemapCacheRepository.class);
+    private SitemapService sitemapService;
+
+    @BeforeEach
+    void setUp() throws SitemapException {
+        SitemapFetcher sitemapFetcher = Mockito.mock(SitemapFetcher.class);
+        Mockito.when(sitemapFetcher.fetch(any(URI.class), any())).thenAnswer(invocation -> {
+            String url = invocation.getArgument(0, URI.class).toString();
+            Thread.sleep(delays.getOrDefault(url, Duration.ZERO));
+            String body = responses.get(url);
+            if (body == null) {
+                throw new SitemapException("Failed to fetch content from URL: " + url + ". Response code: 404");
+            }
+            SitemapFetcher.BodyReader<?> bodyReader = invocation.getArgument(1);
+            return bodyReader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        });
+        Mockito.when(sitemapFetcher.fetch(any(URI.class), any(), any(), any(SitemapLimits.class), any())).thenAnswer(invocation -> {
+            String body = responses.get(invocation.getArgument(0, URI.class).toString());
+            SitemapFetcher.BodyReader<?> bodyReader = invocation.getArgument(4);
+            return new SitemapResponse<>(false, bodyReader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))), null, null);
+        });
+        sitemapService = new SitemapService(sitemapParser, sitemapFetcher, sitemapCacheRepository,
+                Duration.ofSeconds(5), 10, Duration.ofHours(1), Duration.ofHours(1), Duration.ofMinutes(1));
+    }
+
+    @Test
+    void findSitemapURLPrefersRobotsTxtOverFasterFallback() throws SitemapException {
+        responses.put("http://example.com/robots.txt", "User-agent: *\nSitemap: https://example.com/sitemap_index.xml\n");
+        delays.put("http://example.com/robots.txt", Duration.ofMillis(200));
+        responses.put("https://example.com/sitemap_index.xml", SITEMAP);
+        responses.put("https://www.example.com/sitemap.xml", SITEMAP);
+
+        assertThat(sitemapService.findSitemapURL("example.com")).isEqualTo("https://example.com/sitemap_index.xml");
+    }
+
+    @Test
+    void findSitemapURLPicksCandidatesInPriorityOrder() throws SitemapException {
+        responses.put("http://example.com/sitemap.xml", SITEMAP);
+        responses.put("https://example.com/sitemap.xml", SITEMAP);
+        delays.put("https://example.com/sitemap.xml", Duration.ofMillis(200));
+
+        assertThat(sitemapService.findSitemapURL("https://example.com/")).isEqualTo("https://example.com/sitemap.xml");
+    }
+
+    @Test
+    void findSitemapURLFallsBackWhenRobotsTxtSitemapIsInvalid() throws SitemapException {
+        responses.put("https://www.example.com/robots.txt", "Sitemap: https://www.example.com/missing.xml\n");
+        responses.put("https://www.example.com/sitemap.xml", "<!DOCTYPE html><html></html>");
+        responses.put("http://example.com/sitemap.xml", SITEMAP);
+
+        assertThat(sitemapService.findSitemapURL("example.com")).isEqualTo("http://example.com/sitemap.xml");
+    }
+
+    @Test
+    void findSitemapURLFailsWithoutCandidates() {
+        assertThrows(SitemapException.class, () -> sitemapService.findSitemapURL("example.com"));
+    }
+
+    @Test
+    void loadSitemapSkipsParserWhenDigestMatches() throws Exception {
+        String sitemap = "<urlset><url><loc>https://example.com/</loc></url></urlset>";
+        responses.put("https://example.com/sitemap.xml", sitemap);
+        String digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(sitemap.getBytes(StandardCharsets.UTF_8)));
+        mockCacheEntry("https://example.com/sitemap.xml", digest);
+
+        SitemapDocument document = sitemapService.loadSitemap(new URL("https://example.com/sitemap.xml"), SitemapLimits.NONE);
+
+        assertThat(document.fromCache()).isTrue();
+        assertThat(document.urls()).containsExactly("https://example.com/cached");
+        Mockito.verify(sitemapParser, Mockito.never()).parse(any(), any());
+    }
+
+    @Test
+    void loadSitemapParsesWhenDigestDiffers() throws Exception {
+        responses.put("https://example.com/sitemap.xml", "<urlset><url><loc>https://example.com/</loc></url></urlset>");
+        mockCacheEntry("https://example.com/sitemap.xml", "outdated");
+
+        SitemapDocument document = sitemapService.loadSitemap(new URL("https://example.com/sitemap.xml"), SitemapLimits.NONE);
+
+        assertThat(document.fromCache()).isFalse();
+        assertThat(document.urls()).containsExactly("https://example.com/");
+    }
+
+    private void mockCacheEntry(String url, String digest) {
+        SitemapCacheEntry entry = new SitemapCacheEntry();
+        entry.setUrl(url);
+        entry.setDigest(digest);
+        entry.setUrls(List.of("https://example.com/cached"));
+        entry.setUrlLastModified(new long[]{SitemapListener.UNKNOWN_LAST_MODIFIED});
+        entry.setSitemaps(List.of());
+        Mockito.when(sitemapCacheRepository.findById(url)).thenReturn(Optional.of(entry));
+    }
+}
@@ -0,0 +1,59 @@
+package de.samuelgesang.backend.sites;
+
+import de.samuelgesang.backend.crawls.CrawlRepository;
+import de.samuelgesang.backend.crawls.CrawlService;
+import de.samuelgesang.backend.sitemaps.HostRateLimiter;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SiteServiceTest {
+
+    private final SiteRepository siteRepository = mock(SiteRepository.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final SiteService siteService = new SiteService(siteRepository, mock(CrawlRepository.class), mongoTemplate,
+            mock(CrawlService.class), mock(HostRateLimiter.class), 10, Duration.ofDays(7), Duration.ofHours(1), Duration.ofSeconds(2));
+
+    @Test
+    void updateSiteOnlySetsEditedFields() {
+        Site existingSite = new Site("siteId", "Old name", "example.com", "https://example.com/sitemap.xml",
+                "https://example.com/favicon.ico", "userId", "daily", "old@example.com", List.of("crawl1", "crawl2"));
+        when(siteRepository.findById("siteId")).thenReturn(Optional.of(existingSite));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Site.class)))
+                .thenReturn(existingSite);
+
+        SiteUpdateDTO siteUpdateDTO = new SiteUpdateDTO();
+        siteUpdateDTO.setId("siteId");
+        siteUpdateDTO.setName("New name");
+        siteUpdateDTO.setBaseURL("example.com");
+        siteUpdateDTO.setSitemap("https://example.com/sitemap_index.xml");
+        siteUpdateDTO.setCrawlSchedule("weekly");
+        siteUpdateDTO.setEmail("new@example.com");
+        siteUpdateDTO.setUserId("userId");
+
+        siteService.updateSite(siteUpdateDTO);
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class), eq(Site.class));
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        assertThat(set).containsOnlyKeys("name", "baseURL", "sitemap", "crawlSchedule", "email", "favicon");
+        assertThat(set).containsEntry("name", "New name").containsEntry("favicon", "https://example.com/favicon.ico");
+        verify(siteRepository, never()).save(any());
+    }
+}
@@ -0,0 +1,39 @@
+package de.samuelgesang.backend.url_chunk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UrlChunkCodecTest {
+
+    @Test
+    void urlsSurviveEncoding() {
+        List<String> urls = List.of(
+                "https://example.com/",
+                "https://example.com/a",
+                "https://example.com/a/b?x=1\n2",
+                "https://example.com/ä/ü",
+                "https://example.org/");
+
+        assertThat(UrlChunkCodec.decode(UrlChunkCodec.encode(urls))).containsExactlyElementsOf(urls);
+    }
+
+    @Test
+    void emptyChunkSurvivesEncoding() {
+        assertThat(UrlChunkCodec.decode(UrlChunkCodec.encode(List.of()))).isEmpty();
+    }
+
+    @Test
+    void urlsOfReadsBothFormats() {
+        UrlChunk legacy = new UrlChunk();
+        legacy.setUrls(List.of("https://example.com/a"));
+        UrlChunk binary = new UrlChunk();
+        binary.setFormat(UrlChunkCodec.FRONT_CODED_DEFLATE);
+        binary.setData(UrlChunkCodec.encode(List.of("https://example.com/b")));
+
+        assertThat(UrlChunkCodec.urlsOf(legacy)).containsExactly("https://example.com/a");
+        assertThat(UrlChunkCodec.urlsOf(binary)).containsExactly("https://example.com/b");
+    }
+}
@@ -1,5 +1,6 @@
 import axios from 'axios';
 import {Site} from './types/Site';
+import {CrawlDiffCheckResult, CrawlDiffItem, CrawlDiffPage} from './types/Crawl';
 
 export const fetchSitemap = async (url: string | undefined): Promise<string> => {
     if (!url) throw new Error("No URL provided.");
@@ -23,3 +24,25 @@ export const deleteSite = async (id: string | undefined): Promise<void> => {
     if (!id) throw new Error("Site ID is null or undefined");
     await axios.delete(`/api/sites/${id}`);
 };
+
+export const fetchCrawlDiff = async (crawlId: string, page: number, size: number): Promise<CrawlDiffPage> => {
+    const response = await axios.get<CrawlDiffPage>(`/api/crawls/${crawlId}/diff`, {params: {page, size}});
+    return response.data;
+};
+
+export const fetchFullCrawlDiff = async (crawlId: string): Promise<CrawlDiffItem[]> => {
+    const pageSize = 1000;
+    const items: CrawlDiffItem[] = [];
+    for (let page = 0; ; page++) {
+        const diffPage = await fetchCrawlDiff(crawlId, page, pageSize);
+        items.push(...diffPage.items);
+        if (diffPage.items.length < pageSize || items.length >= diffPage.totalItems) {
+            return items;
+        }
+    }
+};
+
+export const updateCrawlDiffChecked = async (crawlId: string, checked: boolean, urls?: string[]): Promise<CrawlDiffCheckResult> => {
+    const response = await axios.put<CrawlDiffCheckResult>(`/api/crawls/${crawlId}/diff/checked`, {urls, checked});
+    return response.data;
+};
@@ -1,12 +1,15 @@
-import React, {useState} from 'react';
+import React, {useEffect, useState} from 'react';
 import axios from 'axios';
 import {Box, Button, Checkbox, Divider, IconButton, List, ListItem, ListItemText, Typography} from '@mui/material';
 import AddIcon from '@mui/icons-material/Add';
 import RemoveIcon from '@mui/icons-material/Remove';
+import EditIcon from '@mui/icons-material/Edit';
 import FileCopyIcon from '@mui/icons-material/FileCopy';
 import DownloadIcon from '@mui/icons-material/Download';
 import DeleteIcon from '@mui/icons-material/Delete';
-import {Crawl} from "../types/Crawl.tsx";
+import DoneAllIcon from '@mui/icons-material/DoneAll';
+import {Crawl, CrawlDiffItem} from "../types/Crawl.tsx";
+import {fetchCrawlDiff, fetchFullCrawlDiff, updateCrawlDiffChecked} from "../api.ts";
 
 type SiteItemProps = {
     crawl: Crawl;
@@ -44,7 +47,8 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
         }
     }
 
-    const handleCopyUrls = () => {
+    const handleCopyUrls = async () => {
+        const diffToPrevCrawl = await fetchFullCrawlDiff(crawl.id);
         const urlsToCopy = diffToPrevCrawl.map(diff => decodeUrl(diff.url)).join('\n');
         navigator.clipboard.writeText(urlsToCopy).then(() => {
             console.log('URLs copied to clipboard');
@@ -53,7 +57,8 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
         });
     };
 
-    const handleDownloadCsv = () => {
+    const handleDownloadCsv = async () => {
+        const diffToPrevCrawl = await fetchFullCrawlDiff(crawl.id);
         const csvContent = "data:text/csv;charset=utf-8,"
             + `Action, URL, checked\n`
             + diffToPrevCrawl.map(diff => `${diff.action},${decodeUrl(diff.url)},${diff.checked}`).join('\n');
@@ -81,21 +86,62 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
         }
     };
 
-    const {diffToPrevCrawl} = crawl;
+    // The diff is loaded in pages from the server, already ordered by action and URL
+    const diffPageSize = 100;
+    const diffLength = (crawl.addedCount ?? 0) + (crawl.removedCount ?? 0) + (crawl.modifiedCount ?? 0);
     const diffLengthLimit = 20;
+    const [diffToPrevCrawl, setDiffToPrevCrawl] = useState<CrawlDiffItem[]>([]);
     const [diffIsTruncated, setDiffIsTruncated] = useState(true);
-    const displayedDiff = diffIsTruncated ? diffToPrevCrawl?.slice(0, diffLengthLimit) : diffToPrevCrawl;
+    const displayedDiff = diffIsTruncated ? diffToPrevCrawl.slice(0, diffLengthLimit) : diffToPrevCrawl;
+    const hiddenDiffLength = diffLength - displayedDiff.length;
+
+    const loadDiffPage = async (page: number) => {
+        try {
+            const diffPage = await fetchCrawlDiff(crawl.id, page, diffPageSize);
+            setDiffToPrevCrawl(prevState => page === 0 ? diffPage.items : [...prevState, ...diffPage.items]);
+        } catch (error) {
+            console.error('Failed to load diff: ', error);
+        }
+    };
+
+    const handleShowMore = async () => {
+        if (!diffIsTruncated) {
+            await loadDiffPage(Math.floor(diffToPrevCrawl.length / diffPageSize));
+        }
+        setDiffIsTruncated(false);
+    };
+
+    const handleCheckDiffItem = (diff: CrawlDiffItem) => {
+        setDiffToPrevCrawl(prevState => prevState.map(item => item.url === diff.url ? {...item, checked: !diff.checked} : item));
+        handleCheckUrl(crawl.id, diff.url, !diff.checked);
+    };
+
+    const handleCheckAll = async () => {
+        try {
+            await updateCrawlDiffChecked(crawl.id, true);
+            setDiffToPrevCrawl(prevState => prevState.map(item => ({...item, checked: true})));
+        } catch (error) {
+            console.error('Failed to check all URLs: ', error);
+        }
+    };
+
+    useEffect(() => {
+        if (diffLength > 0) {
+            loadDiffPage(0);
+        }
+        // eslint-disable-next-line react-hooks/exhaustive-deps
+    }, [crawl.id]);
 
     return (
         <List sx={{padding: 0}}>
-            {displayedDiff?.sort((a, b) => a.url.localeCompare(b.url)).sort((a, b) => a.action.localeCompare(b.action)).map((diff) => (
+            {displayedDiff.map((diff) => (
                 <ListItem
                     key={crawl.finishedAt + diff.url}
                     secondaryAction={
                         <IconButton edge="end" aria-label="mark as done" sx={{padding: '0px', minHeight: '24px'}}>
                             <Checkbox
                                 checked={diff.checked || false}
-                                onChange={() => handleCheckUrl(crawl.id, diff.url, !diff.checked)}
+                                onChange={() => handleCheckDiffItem(diff)}
                                 inputProps={{'aria-label': 'controlled'}}
                                 sx={{padding: '0px', height: '16px', width: '16px'}}
                             />
@@ -112,6 +158,8 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
                     }}>
                         {diff.action === "add" ? (
                             <AddIcon sx={{color: 'green', marginRight: 1, fontSize: '16px'}}/>
+                        ) : diff.action === "modified" ? (
+                            <EditIcon sx={{color: 'orange', marginRight: 1, fontSize: '16px'}}/>
                         ) : (
                             <RemoveIcon sx={{color: 'red', marginRight: 1, fontSize: '16px'}}/>
                         )}
@@ -142,23 +190,21 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
                     </Box>
                 </ListItem>
             ))}
-            {diffIsTruncated && diffToPrevCrawl?.length > diffLengthLimit &&
-                <ListItem onClick={() => {
-                    setDiffIsTruncated(false);
-                }}
+            {hiddenDiffLength > 0 &&
+                <ListItem onClick={handleShowMore}
                           sx={{
                               cursor: 'pointer',
                               '&:hover': {
                                   textDecoration: 'underline',
                               }
-                          }}>and {diffToPrevCrawl?.length - diffLengthLimit} more...</ListItem>}
+                          }}>and {hiddenDiffLength} more...</ListItem>}
 
-            {crawl.prevCrawlId && !diffToPrevCrawl?.length && //show only when there are previous crawls but there are no changes
+            {crawl.prevCrawlId && !diffLength && //show only when there are previous crawls but there are no changes
                 <ListItem sx={{
                     lineHeight: '0.5',
                 }}>- no changes -</ListItem>}
 
-            {diffToPrevCrawl?.length > 0 &&
+            {diffLength > 0 &&
                 <>
                     <Divider/>
                     <Box sx={{display: 'flex', justifyContent: 'space-between', padding: '8px 0'}}>
@@ -168,6 +214,9 @@ const CrawlItem: React.FC<SiteItemProps> = ({crawl, handleCheckUrl, refreshSites
                         <Button variant="text" color="primary" onClick={handleDownloadCsv} startIcon={<DownloadIcon/>}>
                             Download CSV
                         </Button>
+                        <Button variant="text" color="primary" onClick={handleCheckAll} startIcon={<DoneAllIcon/>}>
+                            Check all
+                        </Button>
                     </Box>
                 </>}
 
@@ -74,8 +74,8 @@ const Home: React.FC<HomeProps> = ({sites, refreshSites, user}: HomeProps) => {
             await axios.put(`/api/crawls/update-url-status/${crawlId}`, payload);
         } catch (error) {
             console.error("Error updating URL checked status:", error);
+            refreshSites();
         }
-        refreshSites();
     };
 
     const handleCrawlSite = async (siteId: string) => {
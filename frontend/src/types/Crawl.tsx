@@ -1,3 +1,24 @@
+export type CrawlDiffItem = {
+    id: string;
+    crawlId: string;
+    action: "add" | "remove" | "modified";
+    url: string;
+    checked: boolean;
+}
+
+export type CrawlDiffPage = {
+    items: CrawlDiffItem[];
+    page: number;
+    size: number;
+    totalItems: number;
+}
+
+export type CrawlDiffCheckResult = {
+    matched: number;
+    modified: number;
+    checkedDelta: number;
+}
+
 export type Crawl = {
     id: string;
     siteId: string;
@@ -5,5 +26,7 @@ export type Crawl = {
     finishedAt: string;
     content: string[],
     prevCrawlId: string | null;
-    diffToPrevCrawl: { action: "add" | "remove", url: string, checked: boolean }[]
+    addedCount: number;
+    removedCount: number;
+    modifiedCount: number;
 }
\ No newline at end of file